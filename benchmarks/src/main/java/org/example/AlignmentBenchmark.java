@@ -0,0 +1,116 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row cost of aligning stop_times.txt records with the reference header.
+ * <p>
+ * {@code tokenize} only splits the records and is the floor of the other two. {@code hashMapLookups}
+ * aligns every cell with two {@code HashMap} lookups, as the merge methods did before
+ * {@link ColumnProjection}; {@code projection} uses the per-file {@code int[]} projection. With
+ * {@code layout=same} the file has the reference columns in the reference order (the fast path),
+ * with {@code reordered} its columns are reversed and the reference header has one more column.
+ * Results are in nanoseconds per row.
+ * </p>
+ * <pre>
+ * java -jar target/benchmarks.jar AlignmentBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlignmentBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"0", "8"})
+    public int columnWidth;
+
+    @Param({"same", "reordered"})
+    public String layout;
+
+    private byte[] data;
+    private String[] refHeader;
+    private String[] fileHeader;
+
+    @Setup(Level.Trial)
+    public void createRows() {
+        String[] columns = {"trip_id", "arrival_time", "departure_time", "stop_id", "stop_sequence"};
+        int width = columns.length + columnWidth;
+        fileHeader = new String[width];
+        for (int c = 0; c < width; c++) fileHeader[c] = (c < columns.length) ? columns[c] : "extra_" + (c - columns.length);
+
+        StringBuilder csv = new StringBuilder();
+        for (int r = 0; r < ROWS; r++) {
+            String[] row = {"T" + (r / 20), "08:" + (10 + r % 50) + ":00", "08:" + (10 + r % 50) + ":30", "S" + (r * 7 % 5000), Integer.toString(r % 20)};
+            for (int c = 0; c < width; c++) {
+                if (c > 0) csv.append(',');
+                csv.append(c < columns.length ? row[c] : "value" + (r % 97));
+            }
+            csv.append('\n');
+        }
+
+        if (layout.equals("same")) {
+            refHeader = fileHeader.clone();
+        } else {
+            // The file lists its columns backwards and lacks one reference column
+            String[] reversed = new String[width];
+            for (int c = 0; c < width; c++) reversed[c] = fileHeader[width - 1 - c];
+            fileHeader = reversed;
+            refHeader = new String[width + 1];
+            System.arraycopy(columns, 0, refHeader, 0, columns.length);
+            for (int c = columns.length; c < width; c++) refHeader[c] = "extra_" + (c - columns.length);
+            refHeader[width] = "pickup_type";
+        }
+        data = csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void tokenize(Blackhole blackhole) throws IOException {
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(data))) {
+            while (reader.next()) blackhole.consume(reader.fieldCount());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void hashMapLookups(Blackhole blackhole) throws IOException {
+        Map<String, Integer> refIndex = new HashMap<>();
+        for (int i = 0; i < refHeader.length; i++) refIndex.put(refHeader[i], i);
+        Map<String, Integer> fileIndex = new HashMap<>();
+        for (int i = 0; i < fileHeader.length; i++) fileIndex.put(fileHeader[i], i);
+
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(data))) {
+            while (reader.next()) {
+                int fieldCount = reader.fieldCount();
+                String[] alignedRow = new String[refHeader.length];
+                for (String col : refHeader) {
+                    Integer idx = fileIndex.get(col);
+                    alignedRow[refIndex.get(col)] = (idx != null && idx < fieldCount) ? reader.field(idx) : "";
+                }
+                blackhole.consume(alignedRow);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void projection(Blackhole blackhole) throws IOException {
+        ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(data))) {
+            while (reader.next()) blackhole.consume(projection.align(reader));
+        }
+    }
+}
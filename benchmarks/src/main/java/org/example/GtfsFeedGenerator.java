@@ -0,0 +1,309 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * GtfsFeedGenerator writes synthetic GTFS feeds of any size for load testing the merger.
+ * <p>
+ * Every feed contains agency.txt, calendar.txt, routes.txt, trips.txt, stops.txt, stop_times.txt
+ * and shapes.txt. The output only depends on the settings and the seed, so the same command always
+ * produces byte-identical feeds.
+ * </p>
+ * <p>
+ * The collision ratio controls how many IDs the feeds have in common: with a ratio of 0.25, a quarter
+ * of the stops, routes, trips and shapes of every feed use an ID that every other feed uses as well,
+ * while the rest get IDs prefixed with the feed number. The rows of shared IDs differ from feed to
+ * feed, so the merge has to decide which one wins. Extra columns ("extra_0", "extra_1", ...) widen
+ * the header of every table.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar org.example.GtfsFeedGenerator &lt;outputFolder&gt; [--feeds N] [--stops N]
+ *      [--trips N] [--stops-per-trip N] [--shapes N] [--points-per-shape N] [--collision-ratio R]
+ *      [--extra-columns N] [--seed S] [--zip]
+ * </pre>
+ */
+public class GtfsFeedGenerator {
+
+    private int feedCount = 2;
+    private int stopCount = 10_000;
+    private int tripCount = 10_000;
+    private int stopsPerTrip = 20;
+    private int shapeCount = 1_000;
+    private int pointsPerShape = 200;
+    private double collisionRatio = 0.25;
+    private int extraColumns = 0;
+    private long seed = 1;
+    private boolean zip = false;
+
+    /**
+     * @param feedCount Number of feeds to write (default 2).
+     * @throws IllegalArgumentException If {@code feedCount} is less than 1.
+     */
+    public void setFeedCount(int feedCount) {
+        if (feedCount < 1) throw new IllegalArgumentException("Feed count must be at least 1");
+        this.feedCount = feedCount;
+    }
+
+    /**
+     * @param stopCount Rows in stops.txt of every feed (default 10,000).
+     */
+    public void setStopCount(int stopCount) {
+        this.stopCount = requireNonNegative(stopCount, "Stop count");
+    }
+
+    /**
+     * @param tripCount Rows in trips.txt of every feed (default 10,000).
+     */
+    public void setTripCount(int tripCount) {
+        this.tripCount = requireNonNegative(tripCount, "Trip count");
+    }
+
+    /**
+     * @param stopsPerTrip Rows in stop_times.txt per trip (default 20).
+     */
+    public void setStopsPerTrip(int stopsPerTrip) {
+        this.stopsPerTrip = requireNonNegative(stopsPerTrip, "Stops per trip");
+    }
+
+    /**
+     * @param shapeCount Number of shapes in every feed (default 1,000).
+     */
+    public void setShapeCount(int shapeCount) {
+        this.shapeCount = requireNonNegative(shapeCount, "Shape count");
+    }
+
+    /**
+     * @param pointsPerShape Rows in shapes.txt per shape (default 200).
+     */
+    public void setPointsPerShape(int pointsPerShape) {
+        this.pointsPerShape = requireNonNegative(pointsPerShape, "Points per shape");
+    }
+
+    /**
+     * @param collisionRatio Share of the IDs of every feed that all feeds have in common, from 0 to 1 (default 0.25).
+     * @throws IllegalArgumentException If the ratio is outside [0, 1].
+     */
+    public void setCollisionRatio(double collisionRatio) {
+        if (!(collisionRatio >= 0 && collisionRatio <= 1)) {
+            throw new IllegalArgumentException("Collision ratio must be between 0 and 1");
+        }
+        this.collisionRatio = collisionRatio;
+    }
+
+    /**
+     * @param extraColumns Number of additional columns in every table (default 0).
+     */
+    public void setExtraColumns(int extraColumns) {
+        this.extraColumns = requireNonNegative(extraColumns, "Extra columns");
+    }
+
+    /**
+     * @param seed Seed of the random values; the same seed produces the same feeds (default 1).
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param zip {@code true} to write "feedN.zip" files, {@code false} (default) to write "feedN" folders.
+     */
+    public void setZip(boolean zip) {
+        this.zip = zip;
+    }
+
+    /**
+     * Writes all feeds into {@code outputFolder}, which is created if needed.
+     *
+     * @param outputFolder Folder that receives the feed folders or ZIP files.
+     * @throws IOException If a file cannot be written.
+     */
+    public void generate(File outputFolder) throws IOException {
+        if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+            throw new IOException("Cannot create output folder: " + outputFolder);
+        }
+        for (int feed = 0; feed < feedCount; feed++) {
+            if (zip) {
+                try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(new File(outputFolder, "feed" + feed + ".zip"))))) {
+                    writeFeed(feed, fileName -> {
+                        zos.putNextEntry(new ZipEntry(fileName));
+                        // The entry is closed by the next putNextEntry or by close, so the stream itself stays open
+                        return new BufferedWriter(new OutputStreamWriter(new FilterOutputStream(zos) {
+                            @Override
+                            public void write(byte[] b, int off, int len) throws IOException {
+                                out.write(b, off, len);
+                            }
+
+                            @Override
+                            public void close() throws IOException {
+                                flush();
+                            }
+                        }, StandardCharsets.UTF_8));
+                    });
+                }
+            } else {
+                File dir = new File(outputFolder, "feed" + feed);
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create feed folder: " + dir);
+                writeFeed(feed, fileName -> new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, fileName)), StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    // Opens the writer of one table of a feed
+    private interface TableOpener {
+        Writer open(String fileName) throws IOException;
+    }
+
+    /**
+     * Writes every table of one feed. Each feed has its own random sequence, so adding feeds does
+     * not change the ones that were already there.
+     */
+    private void writeFeed(int feed, TableOpener opener) throws IOException {
+        Random random = new Random(seed * 1_000_003L + feed);
+        int routeCount = Math.max(1, tripCount / 50);
+        int serviceCount = 3;
+
+        try (Writer w = opener.open("agency.txt")) {
+            header(w, "agency_id,agency_name,agency_url,agency_timezone");
+            w.write(id("A", feed, 0, 1) + ",\"Agency " + feed + ", Inc.\",https://example.org/" + feed + ",Europe/Istanbul");
+            extras(w, random);
+        }
+
+        try (Writer w = opener.open("calendar.txt")) {
+            header(w, "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date");
+            for (int i = 0; i < serviceCount; i++) {
+                w.write(id("C", feed, i, serviceCount) + (i == 0 ? ",1,1,1,1,1,0,0" : i == 1 ? ",0,0,0,0,0,1,0" : ",0,0,0,0,0,0,1") + ",20260101,20261231");
+                extras(w, random);
+            }
+        }
+
+        try (Writer w = opener.open("routes.txt")) {
+            header(w, "route_id,agency_id,route_short_name,route_long_name,route_type");
+            for (int i = 0; i < routeCount; i++) {
+                w.write(id("R", feed, i, routeCount) + "," + id("A", feed, 0, 1) + "," + (i + 1) + ",\"Line " + (i + 1) + " (" + random.nextInt(1000) + ")\"," + (random.nextInt(4) == 0 ? 0 : 3));
+                extras(w, random);
+            }
+        }
+
+        try (Writer w = opener.open("trips.txt")) {
+            header(w, "route_id,service_id,trip_id,shape_id,direction_id");
+            for (int i = 0; i < tripCount; i++) {
+                String shapeId = shapeCount > 0 ? id("SH", feed, i % shapeCount, shapeCount) : "";
+                w.write(id("R", feed, i % routeCount, routeCount) + "," + id("C", feed, i % serviceCount, serviceCount) + "," + id("T", feed, i, tripCount) + "," + shapeId + "," + (i & 1));
+                extras(w, random);
+            }
+        }
+
+        try (Writer w = opener.open("stops.txt")) {
+            header(w, "stop_id,stop_name,stop_lat,stop_lon");
+            for (int i = 0; i < stopCount; i++) {
+                w.write(id("S", feed, i, stopCount) + ",\"Stop " + i + ", Platform " + random.nextInt(4) + "\"," + coordinate(random, 38) + "," + coordinate(random, 27));
+                extras(w, random);
+            }
+        }
+
+        try (Writer w = opener.open("stop_times.txt")) {
+            header(w, "trip_id,arrival_time,departure_time,stop_id,stop_sequence,pickup_type,drop_off_type");
+            for (int i = 0; i < tripCount; i++) {
+                String tripId = id("T", feed, i, tripCount);
+                int seconds = 5 * 3600 + random.nextInt(17 * 3600);
+                for (int seq = 1; seq <= stopsPerTrip; seq++) {
+                    String time = time(seconds);
+                    String stopId = stopCount > 0 ? id("S", feed, random.nextInt(stopCount), stopCount) : "";
+                    w.write(tripId + "," + time + "," + time + "," + stopId + "," + seq + ",0,0");
+                    extras(w, random);
+                    seconds += 60 + random.nextInt(180);
+                }
+            }
+        }
+
+        try (Writer w = opener.open("shapes.txt")) {
+            header(w, "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence,shape_dist_traveled");
+            for (int i = 0; i < shapeCount; i++) {
+                String shapeId = id("SH", feed, i, shapeCount);
+                double distance = 0;
+                for (int seq = 1; seq <= pointsPerShape; seq++) {
+                    w.write(shapeId + "," + coordinate(random, 38) + "," + coordinate(random, 27) + "," + seq + "," + String.format(Locale.ROOT, "%.1f", distance));
+                    extras(w, random);
+                    distance += 10 + random.nextInt(200);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ID of entity {@code index} out of {@code count}. The shared IDs are spread evenly
+     * over the range and are the same in every feed; the others are unique to the feed.
+     */
+    private String id(String prefix, int feed, int index, int count) {
+        long shared = Math.round(collisionRatio * count);
+        boolean isShared = (index + 1L) * shared / count > index * shared / count;
+        return isShared ? prefix + index : prefix + feed + "_" + index;
+    }
+
+    private void header(Writer w, String columns) throws IOException {
+        w.write(columns);
+        for (int c = 0; c < extraColumns; c++) w.write(",extra_" + c);
+        w.write("\n");
+    }
+
+    // Ends a row with the values of the extra columns
+    private void extras(Writer w, Random random) throws IOException {
+        for (int c = 0; c < extraColumns; c++) {
+            w.write(",v");
+            w.write(Integer.toString(random.nextInt(100)));
+        }
+        w.write("\n");
+    }
+
+    private static String coordinate(Random random, int base) {
+        return String.format(Locale.ROOT, "%.6f", base + random.nextDouble());
+    }
+
+    private static String time(int seconds) {
+        return String.format(Locale.ROOT, "%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    private static int requireNonNegative(int value, String name) {
+        if (value < 0) throw new IllegalArgumentException(name + " must not be negative");
+        return value;
+    }
+
+    /**
+     * Command line entry point; see the class documentation for the options.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: GtfsFeedGenerator <outputFolder> [--feeds N] [--stops N] [--trips N] [--stops-per-trip N]"
+                    + " [--shapes N] [--points-per-shape N] [--collision-ratio R] [--extra-columns N] [--seed S] [--zip]");
+            System.exit(2);
+        }
+        GtfsFeedGenerator generator = new GtfsFeedGenerator();
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--zip")) {
+                generator.setZip(true);
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            String value = args[++i];
+            switch (option) {
+                case "--feeds": generator.setFeedCount(Integer.parseInt(value)); break;
+                case "--stops": generator.setStopCount(Integer.parseInt(value)); break;
+                case "--trips": generator.setTripCount(Integer.parseInt(value)); break;
+                case "--stops-per-trip": generator.setStopsPerTrip(Integer.parseInt(value)); break;
+                case "--shapes": generator.setShapeCount(Integer.parseInt(value)); break;
+                case "--points-per-shape": generator.setPointsPerShape(Integer.parseInt(value)); break;
+                case "--collision-ratio": generator.setCollisionRatio(Double.parseDouble(value)); break;
+                case "--extra-columns": generator.setExtraColumns(Integer.parseInt(value)); break;
+                case "--seed": generator.setSeed(Long.parseLong(value)); break;
+                default: throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        generator.generate(new File(args[0]));
+    }
+}
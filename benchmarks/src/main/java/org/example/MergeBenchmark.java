@@ -0,0 +1,120 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the merge hot paths: {@code mergeFileSingleId} (stops.txt),
+ * {@code mergeFileMultipleId} (stop_times.txt), {@code selectHeader} and {@code unzip}.
+ * <p>
+ * Every benchmark is parameterized by the number of feeds, the rows per feed and the number of
+ * extra columns; the feeds are written by {@link GtfsFeedGenerator}. Throughput is reported in rows per second through {@link RowCounters}.
+ * </p>
+ * <pre>
+ * mvn install                       (in the parent folder)
+ * mvn package &amp;&amp; java -jar target/benchmarks.jar -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+
+    @Param({"2", "8"})
+    public int feedCount;
+
+    @Param({"10000", "100000"})
+    public int rowCount;
+
+    @Param({"0", "8"})
+    public int columnWidth;
+
+    private File root;
+    private long zipRows;
+    private List<GtfsFeed> feeds;
+    private FeedCatalog catalog;
+    private File[] zips;
+    private File unzipDir;
+
+    private final FullGtfsMerger merger = new FullGtfsMerger();
+    private final MergeOutput output = new NullOutput();
+
+    @Setup(Level.Trial)
+    public void createFeeds() throws IOException {
+        root = Files.createTempDirectory("gtfs-bench").toFile();
+
+        // rowCount rows in stops.txt and in stop_times.txt, no shapes
+        GtfsFeedGenerator generator = new GtfsFeedGenerator();
+        generator.setFeedCount(feedCount);
+        generator.setStopCount(rowCount);
+        generator.setTripCount(rowCount / 20);
+        generator.setStopsPerTrip(20);
+        generator.setShapeCount(0);
+        generator.setExtraColumns(columnWidth);
+        generator.generate(new File(root, "folders"));
+        generator.setZip(true);
+        generator.generate(new File(root, "zips"));
+
+        // agency.txt, calendar.txt, routes.txt, trips.txt, stops.txt and stop_times.txt
+        int tripCount = rowCount / 20;
+        zipRows = (long) feedCount * (1 + 3 + Math.max(1, tripCount / 50) + tripCount + 2L * rowCount);
+
+        feeds = new ArrayList<>();
+        for (int i = 0; i < feedCount; i++) feeds.add(new DirectoryFeed(new File(root, "folders/feed" + i)));
+        catalog = FeedCatalog.scan(feeds, Arrays.asList("stops.txt", "stop_times.txt"));
+        zips = new File(root, "zips").listFiles();
+        unzipDir = Files.createTempDirectory("gtfs-bench-unzip").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFeeds() throws IOException {
+        catalog.close();
+        delete(root);
+        delete(unzipDir);
+    }
+
+    @Benchmark
+    public void mergeFileSingleId(RowCounters counters) throws Exception {
+        merger.mergeFileSingleId(catalog.filesOf("stops.txt"), output, "stops.txt", "stop_id", "long", new TableMetrics("stops.txt"), null);
+        counters.rows += (long) feedCount * rowCount;
+    }
+
+    @Benchmark
+    public void mergeFileMultipleId(RowCounters counters) throws Exception {
+        merger.mergeFileMultipleId(catalog.filesOf("stop_times.txt"), output, "stop_times.txt",
+                new String[]{"trip_id", "stop_sequence"}, "long", new TableMetrics("stop_times.txt"), null);
+        counters.rows += (long) feedCount * rowCount;
+    }
+
+    @Benchmark
+    public String[] selectHeader(RowCounters counters) throws Exception {
+        // Header selection includes the catalog scan that reads the headers
+        try (FeedCatalog fresh = FeedCatalog.scan(feeds, Arrays.asList("stops.txt", "stop_times.txt"))) {
+            counters.rows += feedCount * 2L;
+            merger.selectHeader(fresh.filesOf("stops.txt"), "long");
+            return merger.selectHeader(fresh.filesOf("stop_times.txt"), "long");
+        }
+    }
+
+    @Benchmark
+    public void unzip(RowCounters counters) throws Exception {
+        for (File zip : zips) merger.unzip(zip, unzipDir);
+        counters.rows += zipRows;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+}
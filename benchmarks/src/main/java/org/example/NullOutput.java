@@ -0,0 +1,26 @@
+package org.example;
+
+import java.io.OutputStream;
+
+/**
+ * A merge output that discards everything, so the benchmarks measure the merge and not the disk.
+ */
+final class NullOutput implements MergeOutput {
+
+    @Override
+    public OutputStream openFile(String fileName) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Secondary results of the merge benchmarks.
+ * <p>
+ * {@code rows} is reported by JMH as rows per second. The bytes allocated per row are measured with
+ * the thread allocation counter of HotSpot and printed at the end of every iteration; run with
+ * {@code -prof gc} to get the same figure per invocation ({@code gc.alloc.rate.norm}).
+ * </p>
+ * <p>
+ * The thread counter only sees the benchmark thread. Whatever the merger allocates on other threads,
+ * such as the parse or merge workers of the parallel and pipelined modes or the background extraction
+ * of a zip feed, is missing from the printed figure. Use {@code gc.alloc.rate.norm} from
+ * {@code -prof gc} for those runs; it counts the allocation of the whole JVM.
+ * </p>
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RowCounters {
+
+    /** Rows processed; reported as rows/s. */
+    public long rows;
+
+    private long allocatedAtStart;
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        rows = 0;
+        allocatedAtStart = allocatedBytes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long allocated = allocatedBytes() - allocatedAtStart;
+        if (rows > 0 && allocated >= 0) {
+            System.out.printf("%n  allocation: %.1f bytes/row%n", (double) allocated / rows);
+        }
+    }
+
+    // Bytes allocated by the current thread so far, -1 if the JVM cannot tell; worker threads are not included
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,373 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * ChunkedCsvParser reads the data rows of one GTFS file, splitting large files into byte ranges
+ * that are parsed in parallel on a fork-join pool.
+ * <p>
+ * A range may only start where a record starts, and a line feed inside a quoted field does not end a
+ * record. Whether a line feed is inside quotes depends on the number of double quotes before it, so
+ * the split takes two parallel passes:
+ * <ol>
+ *     <li>The data rows are cut into ranges of about the chunk size, and the double quotes of every
+ *     range are counted. Summing the counts gives the quote state at the start of each range.</li>
+ *     <li>Each chunk starts after the first line feed outside quotes at or after the start of its
+ *     range, and ends where the next chunk starts. These are exactly the line feeds at which the
+ *     sequential {@link GtfsCsvReader} ends a record, so every chunk holds whole records.</li>
+ * </ol>
+ * The rows of every chunk are handed to the consumer in file order, on the calling thread, so
+ * last-row-wins deduplication gives the same result as a sequential read. Only a few chunks are
+ * parsed ahead of the consumer, which bounds the rows waiting in memory.
+ * </p>
+ * <p>
+ * Only files whose streams can skip without reading ({@link GtfsFeed#isSeekable(String)}) are split;
+ * all other files, and files smaller than two chunks, are read sequentially: on the calling thread,
+ * or, when pipelined, on a reader thread that passes batches of aligned rows to the calling thread
+ * through a {@link RowPipeline}.
+ * </p>
+ */
+final class ChunkedCsvParser {
+
+    // Default size of the byte ranges parsed in parallel
+    static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Turns the current record of a reader into a row aligned with the reference header.
+     * Called concurrently from several threads, so it must not change any shared state.
+     */
+    interface RowParser {
+        /**
+         * @return The aligned row, or {@code null} if the record is dropped.
+         */
+        String[] parse(GtfsCsvReader reader);
+    }
+
+    /**
+     * Receives the parsed rows of a file in file order, on the thread that called {@link #parse}.
+     */
+    interface RowConsumer {
+        /**
+         * @param record Index of the record among the data rows of the file, dropped records included.
+         * @param row    The aligned row.
+         */
+        void accept(long record, String[] row) throws IOException;
+    }
+
+    /**
+     * Row and byte counts of one parsed file.
+     */
+    static final class Result {
+        long rowsRead;
+        long rowsDropped;
+        long bytesRead;
+    }
+
+    private final int parallelism;
+    private final long chunkSize;
+    private final boolean pipelined;
+
+    /**
+     * @param parallelism Number of threads that parse one file; 1 reads every file sequentially.
+     * @param chunkSize   Target size of the byte ranges parsed in parallel.
+     * @param pipelined   Whether a sequentially read file is parsed on a thread of its own.
+     */
+    ChunkedCsvParser(int parallelism, long chunkSize, boolean pipelined) {
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Parses all data rows of a file and passes them to {@code consumer} in file order.
+     *
+     * @param file     The file to read; its header is skipped.
+     * @param parser   Aligns each record; called from the worker threads when the file is split.
+     * @param consumer Receives the aligned rows in order.
+     * @return The number of records read and dropped and the number of bytes consumed, header included.
+     * @throws IOException If the file cannot be read or the consumer fails.
+     */
+    Result parse(FeedFile file, RowParser parser, RowConsumer consumer) throws IOException {
+        long dataLength = file.size() - file.headerLength();
+        if (parallelism <= 1 || !file.getFeed().isSeekable(file.getFileName()) || dataLength < 2 * chunkSize) {
+            return pipelined ? parsePipelined(file, parser, consumer) : parseSequential(file, parser, consumer);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return parseChunks(pool, file, dataLength, parser, consumer);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the whole file on the calling thread.
+     */
+    private static Result parseSequential(FeedFile file, RowParser parser, RowConsumer consumer) throws IOException {
+        Result result = new Result();
+        try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows())) {
+            while (reader.next()) {
+                long record = result.rowsRead++;
+                String[] row = parser.parse(reader);
+                if (row == null) result.rowsDropped++;
+                else consumer.accept(record, row);
+            }
+            result.bytesRead = file.headerLength() + reader.position();
+        }
+        return result;
+    }
+
+    /**
+     * Reads and aligns the records on a reader thread while the calling thread consumes them.
+     */
+    private static Result parsePipelined(FeedFile file, RowParser parser, RowConsumer consumer) throws IOException {
+        Result result = new Result();
+        long[] bytesRead = new long[1]; // set by the reader thread, read after it finished
+        RowPipeline.produceInBackground("gtfs-reader-" + file, sink -> {
+            try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows())) {
+                while (reader.next()) sink.accept(parser.parse(reader)); // null for dropped records
+                bytesRead[0] = file.headerLength() + reader.position();
+            }
+        }, (rows, count) -> {
+            for (int i = 0; i < count; i++) {
+                long record = result.rowsRead++;
+                if (rows[i] == null) result.rowsDropped++;
+                else consumer.accept(record, rows[i]);
+            }
+        });
+        result.bytesRead = bytesRead[0];
+        return result;
+    }
+
+    private Result parseChunks(ForkJoinPool pool, FeedFile file, long dataLength, RowParser parser, RowConsumer consumer)
+            throws IOException {
+
+        long dataStart = file.headerLength();
+        int ranges = (int) ((dataLength + chunkSize - 1) / chunkSize);
+        long[] rangeStarts = new long[ranges + 1];
+        for (int i = 0; i < ranges; i++) rangeStarts[i] = dataStart + i * chunkSize;
+        rangeStarts[ranges] = dataStart + dataLength;
+
+        // Pass 1: count the double quotes of every range in parallel
+        List<ForkJoinTask<Long>> counts = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            long start = rangeStarts[i];
+            long end = rangeStarts[i + 1];
+            counts.add(pool.submit(() -> countQuotes(file, start, end)));
+        }
+
+        // Quote state at the start of every range: odd means inside a quoted field
+        boolean[] inQuotes = new boolean[ranges];
+        long quotes = 0;
+        for (int i = 0; i < ranges; i++) {
+            inQuotes[i] = (quotes & 1) != 0;
+            quotes += await(counts.get(i));
+        }
+
+        // Pass 2: parse the chunks in parallel, consuming them in file order
+        Result result = new Result();
+        Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < ranges || !pending.isEmpty()) {
+                // Keep a few chunks ahead of the consumer, never all of them
+                while (next < ranges && pending.size() < 2 * parallelism) {
+                    int i = next++;
+                    long rangeStart = rangeStarts[i];
+                    boolean startsInQuotes = inQuotes[i];
+                    long nextStart = (i + 1 < ranges) ? rangeStarts[i + 1] : -1;
+                    boolean nextInQuotes = (i + 1 < ranges) && inQuotes[i + 1];
+                    pending.add(pool.submit(() -> {
+                        long start = (i == 0) ? rangeStart : recordStart(file, rangeStart, startsInQuotes);
+                        long end = (nextStart < 0) ? dataStart + dataLength : recordStart(file, nextStart, nextInQuotes);
+                        return parseChunk(file, start, end, parser);
+                    }));
+                }
+
+                Chunk chunk = await(pending.poll());
+                for (int r = 0; r < chunk.records; r++) {
+                    long record = result.rowsRead + r;
+                    String[] row = chunk.rows[r];
+                    if (row != null) consumer.accept(record, row);
+                }
+                result.rowsRead += chunk.records;
+                result.rowsDropped += chunk.dropped;
+                result.bytesRead += chunk.bytes;
+            }
+        } finally {
+            for (Future<Chunk> task : pending) task.cancel(true);
+        }
+        result.bytesRead += dataStart;
+        return result;
+    }
+
+    /**
+     * Parsed records of one chunk; {@code null} entries are dropped records.
+     */
+    private static final class Chunk {
+        String[][] rows = new String[1024][];
+        int records;
+        int dropped;
+        long bytes;
+
+        void add(String[] row) {
+            if (records == rows.length) {
+                String[][] grown = new String[records * 2][];
+                System.arraycopy(rows, 0, grown, 0, records);
+                rows = grown;
+            }
+            rows[records++] = row;
+            if (row == null) dropped++;
+        }
+    }
+
+    private static Chunk parseChunk(FeedFile file, long start, long end, RowParser parser) throws IOException {
+        Chunk chunk = new Chunk();
+        if (start >= end) return chunk; // a long quoted field spanned the whole range
+        try (GtfsCsvReader reader = new GtfsCsvReader(openRange(file, start, end))) {
+            while (reader.next()) chunk.add(parser.parse(reader));
+            chunk.bytes = reader.position();
+        }
+        return chunk;
+    }
+
+    /**
+     * @return The number of double quotes in bytes [start, end) of the file.
+     */
+    private static long countQuotes(FeedFile file, long start, long end) throws IOException {
+        long quotes = 0;
+        byte[] buf = new byte[SCAN_BUFFER_SIZE];
+        try (InputStream in = openRange(file, start, end)) {
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '"') quotes++;
+                }
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Finds the first record that starts at or after {@code offset}.
+     *
+     * @param offset    Byte offset in the file.
+     * @param inQuotes  Whether {@code offset} lies inside a quoted field.
+     * @return The offset just after the first line feed outside quotes at or after {@code offset},
+     *         or the file size if there is none.
+     */
+    private static long recordStart(FeedFile file, long offset, boolean inQuotes) throws IOException {
+        byte[] buf = new byte[SCAN_BUFFER_SIZE];
+        long position = offset;
+        try (InputStream in = openRange(file, offset, file.size())) {
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    byte c = buf[i];
+                    if (c == '"') inQuotes = !inQuotes;
+                    else if (c == '\n' && !inQuotes) return position + i + 1;
+                }
+                position += n;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Opens bytes [start, end) of a file. A mapped file is limited to the range itself instead of
+     * being wrapped, so {@link GtfsCsvReader} still tokenizes its mapped windows directly.
+     */
+    private static InputStream openRange(FeedFile file, long start, long end) throws IOException {
+        InputStream in = file.open();
+        try {
+            long remaining = start;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) throw new EOFException(file + " changed while merging");
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        if (in instanceof MappedFileInputStream) {
+            ((MappedFileInputStream) in).limit(end);
+            return in;
+        }
+        return new RangeInputStream(in, end - start);
+    }
+
+    /**
+     * Limits a stream to a number of bytes.
+     */
+    private static final class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c >= 0) remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    /**
+     * Waits for a task and rethrows its failure.
+     */
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Parsing was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
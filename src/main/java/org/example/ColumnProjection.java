@@ -0,0 +1,116 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ColumnProjection aligns the records of one input file with the reference header of its table.
+ * <p>
+ * The position of every reference column in the file is looked up once per file, from the two
+ * headers, so aligning a record is one array access per column instead of two {@code HashMap}
+ * lookups. When the file has exactly the reference columns in the same order, the fields are copied
+ * straight across.
+ * </p>
+ * <p>
+ * A column name that appears more than once resolves to its last occurrence, in both headers; the
+ * earlier positions of a repeated reference column are left {@code null} in the aligned row.
+ * </p>
+ */
+final class ColumnProjection {
+
+    // File column of a reference column that the file does not have
+    static final int MISSING = -1;
+
+    // Reference column that is left null (an earlier duplicate of a column name)
+    private static final int SKIPPED = -2;
+
+    // File column of every reference column
+    private final int[] columns;
+
+    // True if reference column i is file column i for every i
+    private final boolean identity;
+
+    private ColumnProjection(int[] columns) {
+        this.columns = columns;
+        boolean same = true;
+        for (int i = 0; i < columns.length && same; i++) same = (columns[i] == i);
+        this.identity = same;
+    }
+
+    /**
+     * @param refHeader  The reference header of the table.
+     * @param fileHeader The header of the input file.
+     * @return The projection of the file onto the reference header.
+     */
+    static ColumnProjection of(String[] refHeader, String[] fileHeader) {
+        Map<String, Integer> refIndex = indexOf(refHeader);
+        Map<String, Integer> fileIndex = indexOf(fileHeader);
+
+        int[] columns = new int[refHeader.length];
+        Arrays.fill(columns, SKIPPED);
+        for (String col : refHeader) {
+            Integer idx = fileIndex.get(col);
+            columns[refIndex.get(col)] = (idx == null) ? MISSING : idx;
+        }
+        return new ColumnProjection(columns);
+    }
+
+    // Position of every column name; the last occurrence wins
+    private static Map<String, Integer> indexOf(String[] header) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < header.length; i++) index.put(header[i], i);
+        return index;
+    }
+
+    /**
+     * @param refColumn Index of a column in the reference header.
+     * @return The index of the same column in the file, or {@link #MISSING}.
+     */
+    int fileColumn(int refColumn) {
+        int idx = columns[refColumn];
+        return (idx < 0) ? MISSING : idx;
+    }
+
+    /**
+     * Aligns only some columns of the current record, such as the ID columns; the others stay {@code null}.
+     *
+     * @param reader     A reader positioned on a record of the file.
+     * @param refColumns Indexes of the reference columns to decode.
+     * @return A row in reference column order; requested columns missing from the file or the record are "".
+     */
+    String[] alignColumns(GtfsCsvReader reader, int[] refColumns) {
+        String[] row = new String[columns.length];
+        int fieldCount = reader.fieldCount();
+        for (int refColumn : refColumns) {
+            int idx = columns[refColumn];
+            row[refColumn] = (idx >= 0 && idx < fieldCount) ? reader.field(idx) : "";
+        }
+        return row;
+    }
+
+    /**
+     * Aligns the current record of a reader; only the fields used by the reference header are decoded.
+     *
+     * @param reader A reader positioned on a record of the file.
+     * @return The record in reference column order; columns missing from the file or the record are "".
+     */
+    String[] align(GtfsCsvReader reader) {
+        int n = columns.length;
+        String[] row = new String[n];
+        int fieldCount = reader.fieldCount();
+
+        // Same columns in the same order: copy the fields straight across
+        if (identity && fieldCount >= n) {
+            for (int i = 0; i < n; i++) row[i] = reader.field(i);
+            return row;
+        }
+
+        for (int i = 0; i < n; i++) {
+            int idx = columns[i];
+            if (idx == SKIPPED) continue;
+            row[i] = (idx != MISSING && idx < fieldCount) ? reader.field(idx) : "";
+        }
+        return row;
+    }
+}
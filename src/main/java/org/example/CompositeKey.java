@@ -0,0 +1,148 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CompositeKey is the key of a row in a table whose ID consists of several columns.
+ * <p>
+ * Two forms exist, created by {@link CompositeKeyFactory}:
+ * <ul>
+ *     <li>{@link Packed}: an ID ordinal and an unsigned integer sequence packed into one {@code long}
+ *     (stop_times.txt, shapes.txt, calendar_dates.txt)</li>
+ *     <li>{@link Fields}: the ID values themselves, compared field by field (translations.txt, frequencies.txt,
+ *     and any row whose second ID value is not a plain number)</li>
+ * </ul>
+ * Keys are compared by their field values, never by a concatenated string, so trip "A_1" with
+ * sequence "2" and trip "A" with sequence "1_2" are different keys.
+ * </p>
+ */
+abstract class CompositeKey {
+
+    /**
+     * Encodes the key into bytes; equal keys give equal bytes, different keys give different bytes.
+     * Used by stores that write keys to disk.
+     *
+     * @return The encoded key.
+     */
+    abstract byte[] toBytes();
+
+    /**
+     * Decodes a key encoded by {@link #toBytes()}.
+     *
+     * @param bytes The encoded key.
+     * @return The key, equal to the one that was encoded.
+     * @throws IOException If the bytes are not an encoded key.
+     */
+    static CompositeKey fromBytes(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int form = in.readByte();
+        if (form == 1 && bytes.length == 9) {
+            long value = in.readLong();
+            return new Packed((int) (value >>> 32), value & 0xFFFFFFFFL);
+        }
+        if (form != 2) throw new IOException("Not an encoded composite key");
+        List<String> values = new ArrayList<>();
+        while (in.available() > 0) {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            values.add(new String(b, StandardCharsets.UTF_8));
+        }
+        return new Fields(values.toArray(new String[0]));
+    }
+
+    /**
+     * @return A 64-bit fingerprint of the key for {@link HashIndexDedupeStore}; equal keys give equal fingerprints.
+     */
+    abstract long fingerprint();
+
+    /**
+     * An ID ordinal (high 32 bits) and a sequence number (low 32 bits) in a single {@code long}.
+     */
+    static final class Packed extends CompositeKey {
+        private final long value;
+
+        Packed(int ordinal, long sequence) {
+            this.value = ((long) ordinal << 32) | (sequence & 0xFFFFFFFFL);
+        }
+
+        @Override
+        byte[] toBytes() {
+            byte[] bytes = new byte[9];
+            bytes[0] = 1; // form tag
+            for (int i = 0; i < 8; i++) bytes[1 + i] = (byte) (value >>> (56 - 8 * i));
+            return bytes;
+        }
+
+        @Override
+        long fingerprint() {
+            return value; // unique among packed keys
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Packed && ((Packed) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            // Spread the bits so that consecutive sequences don't cluster
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * The ID values of a row, compared field by field.
+     */
+    static final class Fields extends CompositeKey {
+        private final String[] values;
+        private final int hash;
+
+        Fields(String[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        byte[] toBytes() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(2); // form tag
+                for (String v : values) {
+                    byte[] b = v.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // cannot happen with a byte array
+            }
+        }
+
+        @Override
+        long fingerprint() {
+            long h = 2; // form tag
+            for (String v : values) h = h * 0x9E3779B97F4A7C15L + HashIndexDedupeStore.fingerprint(v);
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fields && ((Fields) o).hash == hash && Arrays.equals(((Fields) o).values, values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CompositeKeyFactory builds the {@link CompositeKey} of every row of one table.
+ * <p>
+ * For tables with exactly two ID columns, the first ID value (trip_id, shape_id, service_id) is
+ * replaced by an ordinal from a per-table dictionary, and if the second value is a plain unsigned
+ * number (stop_sequence, shape_pt_sequence, date) both are packed into one {@code long}.
+ * All other rows get a field-by-field key. A value like "01" is not a plain number, so it never
+ * becomes equal to "1": the keys match exactly when the original values match.
+ * </p>
+ * <p>
+ * An instance is not thread-safe; the merge methods use one instance per table.
+ * </p>
+ */
+final class CompositeKeyFactory {
+
+    private final int[] idIndexes;
+
+    // Ordinal of every distinct first ID value (only used for two-column IDs)
+    private final Map<String, Integer> ordinals;
+
+    /**
+     * @param idIndexes Indexes of the ID columns in the aligned rows; -1 for a column missing from the header.
+     */
+    CompositeKeyFactory(int[] idIndexes) {
+        this.idIndexes = idIndexes;
+        this.ordinals = (idIndexes.length == 2) ? new HashMap<>() : null;
+    }
+
+    /**
+     * @param alignedRow A row aligned with the reference header.
+     * @return The key of the row.
+     */
+    CompositeKey keyFor(String[] alignedRow) {
+        if (ordinals != null) {
+            long sequence = parseUnsigned(valueAt(alignedRow, 1));
+            if (sequence >= 0) {
+                String id = valueAt(alignedRow, 0);
+                Integer ordinal = ordinals.get(id);
+                if (ordinal == null) {
+                    ordinal = ordinals.size();
+                    ordinals.put(id, ordinal);
+                }
+                return new CompositeKey.Packed(ordinal, sequence);
+            }
+        }
+
+        String[] values = new String[idIndexes.length];
+        for (int i = 0; i < values.length; i++) values[i] = valueAt(alignedRow, i);
+        return new CompositeKey.Fields(values);
+    }
+
+    /**
+     * @return The first ID values in ordinal order, so the dictionary can be stored with the keys it built.
+     */
+    String[] dictionary() {
+        String[] values = new String[ordinals == null ? 0 : ordinals.size()];
+        if (ordinals != null) for (Map.Entry<String, Integer> e : ordinals.entrySet()) values[e.getValue()] = e.getKey();
+        return values;
+    }
+
+    /**
+     * Restores a dictionary returned by {@link #dictionary()}, so that this factory builds the same keys
+     * as the one that stored it. Must be called before the first key is built.
+     *
+     * @param values The first ID values in ordinal order.
+     */
+    void restoreDictionary(String[] values) {
+        if (ordinals == null) return;
+        for (int i = 0; i < values.length; i++) ordinals.put(values[i], i);
+    }
+
+    // Value of the i-th ID column; "" if the column is missing from the header
+    private String valueAt(String[] alignedRow, int i) {
+        int idx = idIndexes[i];
+        return idx == -1 ? "" : alignedRow[idx];
+    }
+
+    /**
+     * Parses a plain unsigned 32-bit number: digits only, no sign and no leading zero.
+     *
+     * @return The value, or -1 if {@code s} is not such a number.
+     */
+    static long parseUnsigned(String s) {
+        int len = s.length();
+        if (len == 0 || len > 10 || (len > 1 && s.charAt(0) == '0')) return -1;
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value <= 0xFFFFFFFFL ? value : -1;
+    }
+}
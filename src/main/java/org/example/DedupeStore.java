@@ -0,0 +1,42 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * DedupeStore collects aligned rows keyed by their ID values during a merge.
+ * <p>
+ * Rows are offered in input order. When the same key is offered more than once, the latest row wins,
+ * but the key keeps the output position of its first occurrence (the same behaviour as a
+ * {@link java.util.LinkedHashMap}).
+ * </p>
+ *
+ * @param <K> Type of the row keys ({@code String} for single-column IDs, {@link CompositeKey} otherwise).
+ */
+interface DedupeStore<K> extends Closeable, RowSource {
+
+    /**
+     * Receives merged rows in output order.
+     */
+    interface RowSink {
+        void accept(String[] row) throws IOException;
+    }
+
+    /**
+     * Adds a row under the given key, overwriting any earlier row with the same key.
+     *
+     * @param key The unique key built from the row's ID fields; must implement equals and hashCode.
+     * @param row The row aligned with the reference header.
+     * @throws IOException If the store needs to spill to disk and fails.
+     */
+    void put(K key, String[] row) throws IOException;
+
+    /**
+     * Passes every winning row to {@code sink}, in the order their keys were first seen.
+     *
+     * @param sink Receiver of the merged rows.
+     * @throws IOException If the rows cannot be read back or the sink fails.
+     */
+    @Override
+    void forEachRow(RowSink sink) throws IOException;
+}
@@ -0,0 +1,396 @@
+package org.example;
+
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * DeltaMerger applies one replaced feed to a merged output folder using its {@link ProvenanceIndex}.
+ * <p>
+ * For every table, the rows of the old version of the feed are removed from the index, the rows of
+ * the new version are added, and precedence is resolved again for the keys the feed touches: the last
+ * feed containing a key still wins and the key stays at its first occurrence. Rows of unaffected keys
+ * are copied from the previous output. Another feed is only read when it has to supply a row for a key
+ * that the changed feed no longer wins. The result is the same as a full merge of the updated feeds.
+ * </p>
+ * <p>
+ * If the reference header of a table changes (for example because the changed feed added a column and
+ * the "long" header is used), every row of that table has to be realigned, so the table is merged
+ * again from all feeds that contain it.
+ * </p>
+ */
+final class DeltaMerger {
+
+    // Row put first for every key of an updated table, to fix its position; replaced by the winning row
+    private static final String[] PLACEHOLDER = new String[0];
+
+    private final FullGtfsMerger merger;
+    private final Map<String, String[]> idFieldsByFile;
+
+    // Feeds opened during this delta merge, by ordinal
+    private final Map<Integer, GtfsFeed> openFeeds = new HashMap<>();
+
+    /**
+     * @param merger         The merger whose settings are used to re-merge tables.
+     * @param idFieldsByFile The ID columns of every GTFS file the merger handles.
+     */
+    DeltaMerger(FullGtfsMerger merger, Map<String, String[]> idFieldsByFile) {
+        this.merger = merger;
+        this.idFieldsByFile = idFieldsByFile;
+    }
+
+    /**
+     * Applies a changed feed to the merged output and updates the index.
+     *
+     * @param index   The provenance index of the output.
+     * @param ordinal The ordinal of the changed feed in the index.
+     * @param changed The folder, ZIP or tar file with the new version of the feed.
+     * @param outDir  The merged output folder.
+     * @param metrics Receives the metrics of every updated table.
+     * @throws IOException            If a file cannot be read or written, or the output no longer matches the index.
+     * @throws CsvValidationException If a table has to be merged again and a CSV file is malformed.
+     */
+    void apply(ProvenanceIndex index, int ordinal, File changed, File outDir, MergeMetrics metrics)
+            throws IOException, CsvValidationException {
+        try {
+            index.setFeedSource(ordinal, changed);
+            GtfsFeed changedFeed = openFeed(index, ordinal);
+
+            long scanStart = System.nanoTime();
+            try (FeedCatalog catalog = FeedCatalog.scan(Collections.singletonList(changedFeed), idFieldsByFile.keySet())) {
+                metrics.addPhase(MergePhase.SCAN, System.nanoTime() - scanStart);
+
+                try (MergeOutput output = new DirectoryOutput(outDir)) {
+                    for (String fileName : idFieldsByFile.keySet()) {
+                        List<FeedFile> files = catalog.filesOf(fileName);
+                        FeedFile changedFile = (files.isEmpty() || files.get(0).getHeader() == null) ? null : files.get(0);
+                        applyTable(index, ordinal, changedFile, fileName, output, outDir, metrics);
+                    }
+                }
+            }
+        } finally {
+            for (GtfsFeed feed : openFeeds.values()) feed.close();
+        }
+    }
+
+    /**
+     * Updates one table of the merged output.
+     */
+    private void applyTable(ProvenanceIndex index, int ordinal, FeedFile changedFile, String fileName,
+                            MergeOutput output, File outDir, MergeMetrics metrics) throws IOException, CsvValidationException {
+        ProvenanceIndex.Table old = index.table(fileName);
+        boolean hadTable = old != null && old.headers.containsKey(ordinal);
+
+        // The changed feed neither had nor has this table: nothing to do
+        if (changedFile == null && !hadTable) return;
+
+        // Headers of the table after the update, in feed order
+        SortedMap<Integer, String[]> headers = (old == null) ? new TreeMap<>() : new TreeMap<>(old.headers);
+        if (changedFile == null) headers.remove(ordinal);
+        else headers.put(ordinal, changedFile.getHeader());
+
+        // No feed contains the table anymore
+        if (headers.isEmpty()) {
+            File file = new File(outDir, fileName);
+            if (file.exists() && !file.delete()) throw new IOException("Cannot delete " + file);
+            index.removeTable(fileName);
+            return;
+        }
+
+        String[] refHeader = FullGtfsMerger.chooseHeader(new ArrayList<>(headers.values()), index.getHeaderChoice());
+        if (old == null || !Arrays.equals(refHeader, old.refHeader)) {
+            remergeTable(index, ordinal, changedFile, headers.keySet(), fileName, output, metrics);
+        } else {
+            updateTable(index, old, ordinal, changedFile, output, outDir, metrics);
+        }
+    }
+
+    /**
+     * Merges a table again from every feed that contains it.
+     */
+    private void remergeTable(ProvenanceIndex index, int ordinal, FeedFile changedFile, Set<Integer> feeds,
+                              String fileName, MergeOutput output, MergeMetrics metrics) throws IOException, CsvValidationException {
+        List<FeedFile> files = new ArrayList<>();
+        for (int feed : feeds) {
+            files.add(feed == ordinal ? changedFile : FeedCatalog.describe(openFeed(index, feed), fileName));
+        }
+        String[] idFields = idFieldsByFile.get(fileName);
+        ProvenanceIndex.Table table = index.newTable(fileName, idFields);
+        merger.mergeTable(files, output, fileName, idFields, index.getHeaderChoice(), metrics, table);
+        index.putTable(table);
+    }
+
+    /**
+     * Replaces the rows of the changed feed in a table whose reference header stays the same.
+     * <p>
+     * Precedence is resolved on the index alone: it gives the entries, and so the position and the
+     * winning feed, of every key after the update. The rows then go through the same kind of
+     * {@link DedupeStore} a full merge of the table uses, so the heap stays bounded as configured: every
+     * key is first put with an empty placeholder in output order, which fixes its position, and its
+     * winning row then replaces the placeholder, whichever source it is read from.
+     * </p>
+     */
+    private void updateTable(ProvenanceIndex index, ProvenanceIndex.Table old, int ordinal, FeedFile changedFile,
+                             MergeOutput output, File outDir, MergeMetrics metrics) throws IOException {
+        String fileName = old.fileName;
+        TableMetrics tableMetrics = new TableMetrics(fileName);
+
+        // The updated table keeps the key dictionary of the old one, so keys of both compare equal
+        ProvenanceIndex.Table table = old.emptyCopy();
+        table.headers.putAll(old.headers);
+        if (changedFile == null) table.headers.remove(ordinal);
+        else table.headers.put(ordinal, changedFile.getHeader());
+
+        // Keys of the new version of the feed: the first row of every key the index already has,
+        // and the keys that are new in the merge, in row order
+        long[] changedEntries = new long[old.size()];
+        Arrays.fill(changedEntries, -1);
+        ProvenanceIndex.Table added = old.emptyCopy();
+        if (changedFile != null) {
+            added.startFeed(changedFile.getFeed(), changedFile.getHeader());
+            readKeys(changedFile, ordinal, old, (key, row) -> {
+                int slot = old.slotOf(key);
+                if (slot < 0) added.addKey(row, key);
+                else if (changedEntries[slot] == -1) changedEntries[slot] = ProvenanceIndex.entry(ordinal, row);
+            });
+        }
+
+        // Entries of every remaining key; keys of the index are numbered by slot, new keys after them
+        int oldCount = old.size();
+        long[][] entries = new long[oldCount + added.size()][];
+        for (int slot = 0; slot < oldCount; slot++) {
+            long[] updated = replaceEntry(old.entries(slot), ordinal, changedEntries[slot] == -1 ? null : changedEntries[slot]);
+            if (updated.length > 0) entries[slot] = updated; // otherwise only the old version of the feed had the key
+        }
+        for (int slot = 0; slot < added.size(); slot++) entries[oldCount + slot] = added.entries(slot);
+
+        // Every key is placed at its first occurrence: by feed, then by row
+        int[] order = sortByFirstEntry(entries);
+
+        // Slot of every key of the index in the updated table, and the feeds that have to supply rows again
+        int[] newSlots = new int[oldCount];
+        Arrays.fill(newSlots, -1);
+        Set<Integer> fallbackFeeds = new TreeSet<>();
+        for (int key : order) {
+            if (key < oldCount) {
+                newSlots[key] = table.size();
+                table.append(old.keyAt(key), entries[key]);
+                int winner = table.lastFeed(table.size() - 1);
+                if (winner != ordinal && winner != old.lastFeed(key)) fallbackFeeds.add(winner);
+            } else {
+                table.append(added.keyAt(key - oldCount), entries[key]);
+            }
+        }
+
+        if (old.idFields.length > 1) {
+            try (DedupeStore<CompositeKey> store = merger.newCompositeDeltaStore()) {
+                updateRows(index, old, table, newSlots, ordinal, changedFile, fallbackFeeds, outDir, tableMetrics,
+                        (key, row) -> store.put((CompositeKey) key, row));
+                merger.writeMergedFile(output, fileName, old.refHeader, store, tableMetrics);
+            }
+        } else {
+            try (DedupeStore<String> store = merger.newDeltaStore()) {
+                updateRows(index, old, table, newSlots, ordinal, changedFile, fallbackFeeds, outDir, tableMetrics,
+                        (key, row) -> store.put(key.toString(), row));
+                merger.writeMergedFile(output, fileName, old.refHeader, store, tableMetrics);
+            }
+        }
+        index.putTable(table);
+        merger.tableFinished(metrics, tableMetrics);
+    }
+
+    /**
+     * Puts the placeholder of every key of the updated table, then the winning row of every key from
+     * the changed feed, the previous output or the feed that supplies the key again.
+     *
+     * @param newSlots Slot in {@code table} of every slot of {@code old}; -1 for a removed key.
+     */
+    private void updateRows(ProvenanceIndex index, ProvenanceIndex.Table old, ProvenanceIndex.Table table, int[] newSlots,
+                            int ordinal, FeedFile changedFile, Set<Integer> fallbackFeeds, File outDir,
+                            TableMetrics tableMetrics, RowStore store) throws IOException {
+        String fileName = old.fileName;
+        for (int slot = 0; slot < table.size(); slot++) store.put(table.keyAt(slot), PLACEHOLDER);
+
+        // Rows the changed feed wins; the last row of a key wins
+        if (changedFile != null) {
+            readAligned(changedFile, ordinal, table, tableMetrics, (key, row, alignedRow) -> {
+                int slot = table.slotOf(key);
+                if (table.lastFeed(slot) == ordinal) store.put(key, alignedRow);
+            });
+        }
+
+        // Walk the previous output together with the index, which lists the keys in output order
+        File mergedFile = new File(outDir, fileName);
+        try (GtfsCsvReader reader = new GtfsCsvReader(new FileInputStream(mergedFile))) {
+            String[] header = reader.readRecord();
+            if (header == null || !Arrays.equals(header, old.refHeader)) throw outOfDate(mergedFile);
+
+            for (int slot = 0; slot < old.size(); slot++) {
+                if (!reader.next()) throw outOfDate(mergedFile);
+                int newSlot = newSlots[slot];
+                if (newSlot == -1) continue;
+                int winner = table.lastFeed(newSlot);
+                if (winner != ordinal && winner == old.lastFeed(slot)) store.put(table.keyAt(newSlot), reader.row());
+            }
+            if (reader.next()) throw outOfDate(mergedFile);
+        }
+
+        // Keys the changed feed no longer wins take their row from the next feed that has them
+        BitSet supplied = new BitSet(table.size());
+        for (int feed : fallbackFeeds) {
+            try (FeedFile file = FeedCatalog.describe(openFeed(index, feed), fileName)) {
+                readAligned(file, feed, table, tableMetrics, (key, row, alignedRow) -> {
+                    int slot = table.slotOf(key);
+                    if (slot < 0 || table.lastFeed(slot) != feed) return;
+                    int oldSlot = old.slotOf(key);
+                    if (oldSlot >= 0 && old.lastFeed(oldSlot) == feed) return; // still in the previous output
+                    store.put(key, alignedRow); // the last row of the key wins
+                    supplied.set(slot);
+                });
+            }
+        }
+        for (int slot = 0; slot < old.size(); slot++) {
+            int newSlot = newSlots[slot];
+            if (newSlot == -1) continue;
+            int winner = table.lastFeed(newSlot);
+            if (winner != ordinal && winner != old.lastFeed(slot) && !supplied.get(newSlot)) {
+                throw new IOException("Feed " + index.feedName(winner) + " no longer matches the provenance index; run a full merge");
+            }
+        }
+    }
+
+    private static IOException outOfDate(File mergedFile) {
+        return new IOException("Merged file " + mergedFile + " does not match the provenance index; run a full merge");
+    }
+
+    /**
+     * Removes the entry of {@code feed} from a sorted entry list and adds {@code replacement} in its place.
+     *
+     * @param replacement The new entry of the feed, or {@code null} if the feed no longer has the key.
+     */
+    private static long[] replaceEntry(long[] entries, int feed, Long replacement) {
+        long[] result = new long[entries.length + 1];
+        int n = 0;
+        boolean added = (replacement == null);
+        for (long entry : entries) {
+            int f = ProvenanceIndex.feedOf(entry);
+            if (f == feed) continue;
+            if (!added && f > feed) {
+                result[n++] = replacement;
+                added = true;
+            }
+            result[n++] = entry;
+        }
+        if (!added) result[n++] = replacement;
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Orders keys by their first entry. First entries are unique, since a row has only one key, so the
+     * order is found by binary search in the sorted entries instead of sorting boxed indexes.
+     *
+     * @param entries The entries of every key, or {@code null} for a removed key.
+     * @return The numbers of the remaining keys in output order.
+     */
+    private static int[] sortByFirstEntry(long[][] entries) {
+        int count = 0;
+        for (long[] e : entries) if (e != null) count++;
+        long[] firstEntries = new long[count];
+        int n = 0;
+        for (long[] e : entries) if (e != null) firstEntries[n++] = e[0];
+        Arrays.sort(firstEntries);
+
+        int[] order = new int[count];
+        for (int key = 0; key < entries.length; key++) {
+            if (entries[key] != null) order[Arrays.binarySearch(firstEntries, entries[key][0])] = key;
+        }
+        return order;
+    }
+
+    // Receives the winning rows of the updated table
+    private interface RowStore {
+        void put(Object key, String[] row) throws IOException;
+    }
+
+    // Receives the key of every row of a feed file together with its row number
+    private interface KeyHandler {
+        void accept(Object key, long row);
+    }
+
+    // Receives the aligned rows of a feed file together with their key and row number
+    private interface RowHandler {
+        void accept(Object key, long row, String[] alignedRow) throws IOException;
+    }
+
+    /**
+     * Reads a feed file, decoding only the ID columns, and passes the key of every row the merge keeps to {@code handler}.
+     */
+    private static void readKeys(FeedFile file, int feed, ProvenanceIndex.Table table, KeyHandler handler) throws IOException {
+        String[] fileHeader = file.getHeader();
+        if (fileHeader == null) return;
+
+        ColumnProjection projection = ColumnProjection.of(table.refHeader, fileHeader);
+        int[] keyColumns = table.keyColumns();
+        long rowsRead = 0;
+        try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows())) {
+            while (reader.next()) {
+                long row = rowsRead++;
+                Object key = table.keyOf(projection.alignColumns(reader, keyColumns), feed, row);
+                if (key != null) handler.accept(key, row);
+            }
+        }
+    }
+
+    /**
+     * Reads a feed file, aligns every row with the reference header of the table and passes the rows
+     * the merge keeps to {@code handler}.
+     */
+    private static void readAligned(FeedFile file, int feed, ProvenanceIndex.Table table, TableMetrics metrics,
+                                    RowHandler handler) throws IOException {
+        String[] refHeader = table.refHeader;
+        String[] fileHeader = file.getHeader();
+        if (fileHeader == null) return;
+
+        // Position of every reference column in this file
+        ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+
+        FeedMetrics feedMetrics = metrics.startFeed(file.getFeed().getName());
+        long parseStart = System.nanoTime();
+        long rowsRead = 0;
+        long rowsDropped = 0;
+        try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows())) {
+            while (reader.next()) {
+                long row = rowsRead++;
+                String[] alignedRow = projection.align(reader);
+                Object key = table.keyOf(alignedRow, feed, row);
+                if (key == null) {
+                    rowsDropped++;
+                    continue;
+                }
+                handler.accept(key, row, alignedRow);
+            }
+            metrics.finishFeed(feedMetrics, rowsRead, rowsDropped, file.headerLength() + reader.position(), System.nanoTime() - parseStart);
+        }
+    }
+
+    /**
+     * Opens a feed of the index (once) and binds it to its ordinal.
+     */
+    private GtfsFeed openFeed(ProvenanceIndex index, int ordinal) throws IOException {
+        GtfsFeed feed = openFeeds.get(ordinal);
+        if (feed != null) return feed;
+
+        File source = index.feedSource(ordinal);
+        if (source.isDirectory()) feed = new DirectoryFeed(source);
+        else if (source.isFile() && source.getName().toLowerCase().endsWith(".zip")) feed = new ZipFeed(source);
+        else if (source.isFile() && TarFeed.isTarArchive(source.getName())) feed = new TarFeed(source);
+        else throw new IOException("Feed " + index.feedName(ordinal) + " not found at " + source);
+
+        openFeeds.put(ordinal, feed);
+        index.bind(feed, ordinal);
+        return feed;
+    }
+}
@@ -0,0 +1,178 @@
+package org.example;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * DirectoryFeed is a GTFS feed stored as loose .txt files in a folder.
+ * <p>
+ * Files of at least the memory-map threshold are read through a {@link MappedFileInputStream},
+ * all others through a plain {@link FileInputStream}.
+ * </p>
+ * <p>
+ * A table may also be stored gzip-compressed, as {@code stops.txt.gz} for example. It is listed
+ * under its plain name and decompressed while it is read; nothing is written to disk. If both
+ * forms exist, the plain file is used. The folder is listed once, when the feed is opened (or its
+ * files are given, for a folder that is still being filled), and the compressed tables are looked
+ * up from that listing.
+ * </p>
+ */
+class DirectoryFeed implements GtfsFeed {
+
+    // Suffix of gzip-compressed tables
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+
+    // Files of at least this many bytes are memory-mapped; 0 never maps
+    private final long mapThreshold;
+
+    // Names of the files of the folder, compressed tables under their plain name
+    private final List<String> files;
+
+    // Plain name → compressed file of every table that is only stored gzip-compressed
+    private final Map<String, File> compressedTables = new HashMap<>();
+
+    DirectoryFeed(File dir) {
+        this(dir, 0);
+    }
+
+    /**
+     * @param dir          The feed folder.
+     * @param mapThreshold Minimum size in bytes of the files that are read memory-mapped, or 0 to never map.
+     */
+    DirectoryFeed(File dir, long mapThreshold) {
+        this(dir, mapThreshold, dir.list());
+    }
+
+    /**
+     * Creates a feed over a folder that is still being filled, such as the folder a ZIP archive is
+     * extracted into: the files are given instead of listed, so they need not exist yet.
+     *
+     * @param dir          The feed folder.
+     * @param mapThreshold Minimum size in bytes of the files that are read memory-mapped, or 0 to never map.
+     * @param names        Names of the files the folder holds once it is complete, or {@code null} for none.
+     */
+    DirectoryFeed(File dir, long mapThreshold, String[] names) {
+        this.dir = dir;
+        this.mapThreshold = mapThreshold;
+
+        if (names == null) {
+            files = Collections.emptyList();
+            return;
+        }
+
+        // Compressed tables are listed under their plain name, once
+        Set<String> plain = new HashSet<>();
+        for (String name : names) if (!isCompressedTable(name)) plain.add(name);
+        Set<String> all = new LinkedHashSet<>();
+        for (String name : names) {
+            if (!isCompressedTable(name)) {
+                all.add(name);
+                continue;
+            }
+            String table = name.substring(0, name.length() - GZIP_SUFFIX.length());
+            all.add(table);
+            if (!plain.contains(table)) compressedTables.put(table, new File(dir, name));
+        }
+        files = new ArrayList<>(all);
+    }
+
+    @Override
+    public String getName() {
+        return dir.getName();
+    }
+
+    @Override
+    public List<String> listFiles() {
+        return new ArrayList<>(files);
+    }
+
+    @Override
+    public long fileSize(String fileName) {
+        File compressed = compressedTables.get(fileName);
+        if (compressed == null) return new File(dir, fileName).length(); // 0 for missing files
+        try {
+            return uncompressedSize(compressed);
+        } catch (IOException e) {
+            return 0; // unknown
+        }
+    }
+
+    @Override
+    public long lastModified(String fileName) {
+        File compressed = compressedTables.get(fileName);
+        return (compressed != null) ? compressed.lastModified() : new File(dir, fileName).lastModified(); // 0 for missing files
+    }
+
+    @Override
+    public InputStream openFile(String fileName) throws IOException {
+        File compressed = compressedTables.get(fileName);
+        if (compressed != null) {
+            InputStream in = new FileInputStream(compressed);
+            try {
+                return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        File file = new File(dir, fileName);
+        if (mapThreshold > 0 && file.length() >= mapThreshold) return new MappedFileInputStream(file);
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Returns the file on disk, or {@code null} if the table is stored compressed.
+     */
+    @Override
+    public File localFile(String fileName) {
+        return compressedTables.containsKey(fileName) ? null : new File(dir, fileName);
+    }
+
+    @Override
+    public boolean isSeekable(String fileName) {
+        // Plain and mapped files skip by moving their position; compressed ones must be decompressed
+        return !compressedTables.containsKey(fileName);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * @return {@code true} for the name of a gzip-compressed table, such as {@code stops.txt.gz}.
+     */
+    static boolean isCompressedTable(String name) {
+        return name.endsWith(".txt" + GZIP_SUFFIX);
+    }
+
+    /**
+     * Reads the uncompressed size from the trailer of a gzip file. The trailer stores the size modulo
+     * 4 GB, so larger tables report a smaller size; the size is only used to order the merge.
+     */
+    private static long uncompressedSize(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 4) return 0;
+            raf.seek(raf.length() - 4);
+            byte[] trailer = new byte[4];
+            raf.readFully(trailer);
+            return (trailer[0] & 0xFFL) | (trailer[1] & 0xFFL) << 8 | (trailer[2] & 0xFFL) << 16 | (trailer[3] & 0xFFL) << 24;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DirectoryOutput writes every merged GTFS file as a .txt file into a folder.
+ * <p>
+ * Files are written through a {@link FileChannel}. The CSV writer hands over its large buffer in
+ * one call, and the channel writes it from a reused direct buffer; a {@code FileOutputStream}
+ * allocates a native buffer for every write of more than a few kilobytes.
+ * </p>
+ */
+class DirectoryOutput implements MergeOutput {
+
+    private final File dir;
+
+    /**
+     * @param dir The output folder; it is created if it doesn't exist.
+     */
+    DirectoryOutput(File dir) {
+        this.dir = dir;
+        if (!dir.exists()) dir.mkdirs();
+    }
+
+    @Override
+    public OutputStream openFile(String fileName) throws IOException {
+        FileChannel channel = FileChannel.open(new File(dir, fileName).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return Channels.newOutputStream(channel); // closing the stream closes the channel
+    }
+
+    @Override
+    public void close() {
+        // every file is closed by its writer
+    }
+}
@@ -0,0 +1,384 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * ExternalSortDedupeStore merges rows with a bounded amount of heap by sorting them on disk.
+ * <p>
+ * Rows are buffered until the memory budget is reached, then sorted by key and written to a
+ * temporary run file. When the input is complete, the runs are k-way merged by key: for every key
+ * the row offered last wins and the position of the first occurrence is kept. The surviving rows
+ * are sorted a second time by that position, so the output order is exactly the same as the
+ * {@link HashIndexDedupeStore} produces.
+ * </p>
+ * <p>
+ * Peak heap is roughly the memory budget plus one read buffer per open run, regardless of the
+ * size of the input.
+ * </p>
+ *
+ * @param <K> Type of the row keys; they are sorted by their encoded bytes.
+ */
+class ExternalSortDedupeStore<K> implements DedupeStore<K> {
+
+    // Maximum number of runs that are merged at the same time
+    private static final int MAX_FAN_IN = 64;
+
+    // Buffer size used for run files
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    // Length written in a run file for a null cell (an unset column of the aligned row)
+    private static final int NULL_FIELD = -1;
+
+    // Key order first, then input order; used while building and merging key-sorted runs
+    private static final Comparator<Record> KEY_ORDER = (a, b) -> {
+        int c = compareKeys(a.key, b.key);
+        return c != 0 ? c : Long.compare(a.lastSeq, b.lastSeq);
+    };
+
+    // Position of the first occurrence; used to restore the output order
+    private static final Comparator<Record> FIRST_SEEN_ORDER = Comparator.comparingLong(r -> r.firstSeq);
+
+    private final long memoryBudget;
+    private final Function<? super K, byte[]> keyEncoder;
+    private final File tempDir;
+
+    // Rows waiting to be sorted and written to the next run
+    private List<Record> buffer = new ArrayList<>();
+    private long bufferedBytes;
+
+    // Input position of the next row
+    private long nextSeq;
+
+    // Key-sorted runs written so far
+    private final List<Run> keyRuns = new ArrayList<>();
+    private int runCounter;
+
+    /**
+     * Creates a store that keeps at most about {@code memoryBudget} bytes of rows on the heap.
+     *
+     * @param memoryBudget Approximate number of heap bytes used for buffering rows.
+     * @param keyEncoder   Encodes a key into bytes; equal keys must give equal bytes and different keys different bytes.
+     * @throws IOException If the temporary directory for the run files cannot be created.
+     */
+    ExternalSortDedupeStore(long memoryBudget, Function<? super K, byte[]> keyEncoder) throws IOException {
+        this.memoryBudget = memoryBudget;
+        this.keyEncoder = keyEncoder;
+        this.tempDir = Files.createTempDirectory("gtfs-merge-sort").toFile();
+    }
+
+    @Override
+    public void put(K key, String[] row) throws IOException {
+        long seq = nextSeq++;
+        Record record = new Record(keyEncoder.apply(key), seq, seq, row);
+        buffer.add(record);
+        bufferedBytes += record.estimatedSize();
+
+        // Budget reached: sort what we have and move it to disk
+        if (bufferedBytes >= memoryBudget) spillKeyRun();
+    }
+
+    @Override
+    public void forEachRow(RowSink sink) throws IOException {
+        // Everything fit into the budget: no disk access needed
+        if (keyRuns.isEmpty()) {
+            List<Record> winners = new ArrayList<>();
+            sortAndCollapse(buffer, winners::add);
+            buffer = new ArrayList<>();
+            winners.sort(FIRST_SEEN_ORDER);
+            for (Record r : winners) sink.accept(r.row);
+            return;
+        }
+
+        // Move the remaining rows to disk and merge all runs by key
+        spillKeyRun();
+        List<Run> runs = reduceRuns(keyRuns, KEY_ORDER, true);
+
+        // The winners of every key are sorted again by their first position
+        List<Run> seqRuns = new ArrayList<>();
+        List<Record> seqBuffer = new ArrayList<>();
+        long[] seqBufferBytes = {0};
+        mergeRuns(runs, KEY_ORDER, true, r -> {
+            seqBuffer.add(r);
+            seqBufferBytes[0] += r.estimatedSize();
+            if (seqBufferBytes[0] >= memoryBudget) {
+                seqBuffer.sort(FIRST_SEEN_ORDER);
+                seqRuns.add(writeRun(seqBuffer));
+                seqBuffer.clear();
+                seqBufferBytes[0] = 0;
+            }
+        });
+        deleteRuns(runs);
+
+        seqBuffer.sort(FIRST_SEEN_ORDER);
+        if (seqRuns.isEmpty()) {
+            for (Record r : seqBuffer) sink.accept(r.row);
+            return;
+        }
+        if (!seqBuffer.isEmpty()) seqRuns.add(writeRun(seqBuffer));
+        seqBuffer.clear();
+
+        List<Run> finalRuns = reduceRuns(seqRuns, FIRST_SEEN_ORDER, false);
+        mergeRuns(finalRuns, FIRST_SEEN_ORDER, false, r -> sink.accept(r.row));
+        deleteRuns(finalRuns);
+    }
+
+    @Override
+    public void close() {
+        buffer = new ArrayList<>();
+        File[] files = tempDir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        tempDir.delete();
+    }
+
+    /**
+     * Sorts the buffered rows by key, keeps only the winner of each key and writes them to a new run file.
+     */
+    private void spillKeyRun() throws IOException {
+        if (buffer.isEmpty()) return;
+        List<Record> collapsed = new ArrayList<>();
+        sortAndCollapse(buffer, collapsed::add);
+        keyRuns.add(writeRun(collapsed));
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Sorts {@code records} by key and passes one combined record per key to {@code out}.
+     */
+    private static void sortAndCollapse(List<Record> records, RecordSink out) throws IOException {
+        records.sort(KEY_ORDER);
+        Record pending = null;
+        for (Record r : records) {
+            if (pending != null && compareKeys(pending.key, r.key) == 0) pending = pending.combine(r);
+            else {
+                if (pending != null) out.accept(pending);
+                pending = r;
+            }
+        }
+        if (pending != null) out.accept(pending);
+    }
+
+    /**
+     * Merges groups of runs until no more than {@link #MAX_FAN_IN} runs are left.
+     */
+    private List<Run> reduceRuns(List<Run> runs, Comparator<Record> order, boolean collapseKeys) throws IOException {
+        List<Run> current = new ArrayList<>(runs);
+        while (current.size() > MAX_FAN_IN) {
+            List<Run> next = new ArrayList<>();
+            for (int i = 0; i < current.size(); i += MAX_FAN_IN) {
+                List<Run> group = current.subList(i, Math.min(i + MAX_FAN_IN, current.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                RunWriter writer = new RunWriter(newRunFile());
+                try {
+                    mergeRuns(group, order, collapseKeys, writer::write);
+                } finally {
+                    writer.close();
+                }
+                deleteRuns(group);
+                next.add(writer.toRun());
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * K-way merges the given runs in {@code order}. If {@code collapseKeys} is set, records with the
+     * same key are combined into one.
+     */
+    private static void mergeRuns(List<Run> runs, Comparator<Record> order, boolean collapseKeys, RecordSink out) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            // Heap of run heads ordered by their current record
+            PriorityQueue<RunReader> heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> order.compare(a.current, b.current));
+            for (Run run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) heads.add(reader);
+            }
+
+            Record pending = null;
+            while (!heads.isEmpty()) {
+                RunReader head = heads.poll();
+                Record r = head.current;
+                if (head.advance()) heads.add(head);
+
+                if (!collapseKeys) {
+                    out.accept(r);
+                } else if (pending != null && compareKeys(pending.key, r.key) == 0) {
+                    pending = pending.combine(r);
+                } else {
+                    if (pending != null) out.accept(pending);
+                    pending = r;
+                }
+            }
+            if (pending != null) out.accept(pending);
+        } finally {
+            for (RunReader reader : readers) reader.close();
+        }
+    }
+
+    private Run writeRun(List<Record> records) throws IOException {
+        RunWriter writer = new RunWriter(newRunFile());
+        try {
+            for (Record r : records) writer.write(r);
+        } finally {
+            writer.close();
+        }
+        return writer.toRun();
+    }
+
+    private File newRunFile() {
+        return new File(tempDir, "run-" + (runCounter++) + ".bin");
+    }
+
+    private static void deleteRuns(List<Run> runs) {
+        for (Run run : runs) run.file.delete();
+    }
+
+    /**
+     * Compares two encoded keys byte by byte (unsigned).
+     */
+    private static int compareKeys(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+
+    private interface RecordSink {
+        void accept(Record record) throws IOException;
+    }
+
+    /**
+     * A row with its key, the position of the key's first occurrence and the position of this row.
+     */
+    private static final class Record {
+        final byte[] key;
+        final long firstSeq;
+        final long lastSeq;
+        final String[] row;
+
+        Record(byte[] key, long firstSeq, long lastSeq, String[] row) {
+            this.key = key;
+            this.firstSeq = firstSeq;
+            this.lastSeq = lastSeq;
+            this.row = row;
+        }
+
+        // Keeps the earliest position and the latest row of two records with the same key
+        Record combine(Record other) {
+            Record winner = other.lastSeq > lastSeq ? other : this;
+            long first = Math.min(firstSeq, other.firstSeq);
+            return first == winner.firstSeq ? winner : new Record(key, first, winner.lastSeq, winner.row);
+        }
+
+        // Rough heap footprint of the record, used to enforce the memory budget
+        long estimatedSize() {
+            long size = 64 + key.length + 16L + 8L * row.length;
+            for (String field : row) {
+                if (field != null) size += 40 + 2L * field.length();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * A sorted run file and the number of records it contains.
+     */
+    private static final class Run {
+        final File file;
+        final long count;
+
+        Run(File file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    private static final class RunWriter implements Closeable {
+        private final File file;
+        private final DataOutputStream out;
+        private long count;
+
+        RunWriter(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+        }
+
+        void write(Record r) throws IOException {
+            out.writeInt(r.key.length);
+            out.write(r.key);
+            out.writeLong(r.firstSeq);
+            out.writeLong(r.lastSeq);
+            out.writeInt(r.row.length);
+            for (String field : r.row) {
+                if (field == null) {
+                    out.writeInt(NULL_FIELD);
+                    continue;
+                }
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            count++;
+        }
+
+        Run toRun() {
+            return new Run(file, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private long remaining;
+        Record current;
+
+        RunReader(Run run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), IO_BUFFER_SIZE));
+            this.remaining = run.count;
+        }
+
+        // Reads the next record into current; returns false at the end of the run
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            long firstSeq = in.readLong();
+            long lastSeq = in.readLong();
+            String[] row = new String[in.readInt()];
+            for (int i = 0; i < row.length; i++) {
+                int length = in.readInt();
+                if (length == NULL_FIELD) continue; // the cell stays null
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                row[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            current = new Record(key, firstSeq, lastSeq, row);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.example;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ExtractedZipFeed is a GTFS ZIP archive that is extracted into a temporary folder in the background.
+ * <p>
+ * The constructor only schedules the extraction on a shared pool: every large entry is extracted by
+ * its own task and the small entries of the archive by one more task, each reading its entries
+ * through {@link ZipFile} random access. The merge can start right away. Headers are read straight
+ * from the ZIP entries, and {@link #openFile(String)} waits only until its own file has been
+ * extracted, so a table is merged as soon as every feed's copy of it is on disk.
+ * </p>
+ */
+final class ExtractedZipFeed extends ZipFeed {
+
+    // Entries of at least this size are extracted by a task of their own
+    static final long LARGE_ENTRY_SIZE = 4L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final DirectoryFeed extracted;
+
+    // Extraction task of every file entry
+    private final Map<String, Future<?>> pending = new HashMap<>();
+
+    /**
+     * Opens the archive and schedules the extraction of all of its entries.
+     *
+     * @param file         The GTFS ZIP file.
+     * @param dir          The folder to extract the archive into.
+     * @param pool         Runs the extraction tasks, largest entries first.
+     * @param mapThreshold Minimum size of the extracted files that are read memory-mapped, or 0.
+     * @param metrics      Receives the time of every extraction task.
+     * @throws IOException If the file cannot be opened as a ZIP archive.
+     */
+    ExtractedZipFeed(File file, File dir, ExecutorService pool, long mapThreshold, MergeMetrics metrics) throws IOException {
+        super(file);
+        this.dir = dir;
+
+        // The folder is still empty, so the extracted files are described by the entries, not listed
+        this.extracted = new DirectoryFeed(dir, mapThreshold, listFiles().toArray(new String[0]));
+
+        // Largest entries first, in the order the tables are merged
+        List<ZipEntry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> all = zipFile().entries();
+        while (all.hasMoreElements()) entries.add(all.nextElement());
+        entries.sort(Comparator.comparingLong((ZipEntry e) -> e.getSize()).reversed());
+
+        List<ZipEntry> small = new ArrayList<>();
+        for (ZipEntry entry : entries) {
+            if (entry.getSize() >= LARGE_ENTRY_SIZE) {
+                pending.put(entry.getName(), pool.submit(() -> extract(Collections.singletonList(entry), metrics)));
+            } else {
+                small.add(entry);
+            }
+        }
+        if (!small.isEmpty()) {
+            Future<?> task = pool.submit(() -> extract(small, metrics));
+            for (ZipEntry entry : small) pending.put(entry.getName(), task);
+        }
+    }
+
+    /**
+     * Opens an extracted file, waiting until it has been extracted.
+     */
+    @Override
+    public InputStream openFile(String fileName) throws IOException {
+        awaitExtraction(fileName);
+        return extracted.openFile(fileName);
+    }
+
+    /**
+     * Returns an extracted file, waiting until it has been extracted.
+     */
+    @Override
+    public File localFile(String fileName) throws IOException {
+        awaitExtraction(fileName);
+        return extracted.localFile(fileName);
+    }
+
+    private void awaitExtraction(String fileName) throws IOException {
+        Future<?> task = pending.get(fileName);
+        if (task == null) throw new FileNotFoundException(fileName + " not found in " + getName());
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction of " + getName() + " was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads the start of a file from its ZIP entry, without waiting for the extraction.
+     */
+    @Override
+    public InputStream openHead(String fileName) throws IOException {
+        return super.openFile(fileName);
+    }
+
+    /**
+     * The rows are read from the extracted file, which can be split into ranges, not from the ZIP entry.
+     */
+    @Override
+    public boolean readsRowsFromHead(String fileName) {
+        return false;
+    }
+
+    @Override
+    public boolean isSeekable(String fileName) {
+        return extracted.isSeekable(fileName);
+    }
+
+    /**
+     * Stops the extraction tasks that have not started yet and closes the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Future<?> task : pending.values()) task.cancel(false);
+        super.close();
+    }
+
+    /**
+     * Extracts entries into the folder of this feed.
+     *
+     * @return {@code null}, so the task can be submitted as a {@code Callable} and may throw.
+     */
+    private Void extract(List<ZipEntry> entries, MergeMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        Object event = MergeEvents.INSTANCE.beginUnzip();
+        long bytes = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (ZipEntry entry : entries) bytes += extractEntry(zipFile(), entry, dir, buffer);
+        MergeEvents.INSTANCE.endUnzip(event, getName(), bytes);
+        metrics.addPhase(MergePhase.UNZIP, System.nanoTime() - start);
+        return null;
+    }
+
+    /**
+     * Extracts one entry, keeping the folder structure of the archive.
+     *
+     * @param zipFile The archive.
+     * @param entry   The entry to extract.
+     * @param destDir The folder to extract into.
+     * @param buffer  Copy buffer.
+     * @return The number of bytes written.
+     * @throws IOException If the entry cannot be read or the file cannot be written.
+     */
+    static long extractEntry(ZipFile zipFile, ZipEntry entry, File destDir, byte[] buffer) throws IOException {
+        File newFile = new File(destDir, entry.getName());
+        if (entry.isDirectory()) {
+            newFile.mkdirs();
+            return 0;
+        }
+        newFile.getParentFile().mkdirs();
+        long written = 0;
+        try (InputStream in = zipFile.getInputStream(entry); FileOutputStream out = new FileOutputStream(newFile)) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * FeedCatalog records, for every feed, which GTFS files exist together with their size,
+ * modification time and header.
+ * <p>
+ * The catalog is built in a single pass before the merge starts: every feed is listed once and the
+ * header of every GTFS file is read once. All later stages (ordering the tables by size, choosing the
+ * reference header, reading the rows) work from the catalog, so no file is checked for existence or
+ * opened for its header again. The rows are read on from the stream of the header scan, so each file
+ * is opened once.
+ * </p>
+ * <p>
+ * A file larger than the header buffer therefore stays open from the scan until its table is merged.
+ * Closing the catalog closes the streams of the tables that were never merged.
+ * </p>
+ */
+final class FeedCatalog implements Closeable {
+
+    // Small buffer: only the first line of each file is needed
+    private static final int HEADER_BUFFER_SIZE = 8 * 1024;
+
+    // File name → files of that name, in feed order
+    private final Map<String, List<FeedFile>> filesByName;
+
+    private FeedCatalog(Map<String, List<FeedFile>> filesByName) {
+        this.filesByName = filesByName;
+    }
+
+    /**
+     * Lists every feed and reads the header of each of the given GTFS files.
+     *
+     * @param feeds     Feeds in merge order.
+     * @param fileNames GTFS file names to look for (e.g., "stops.txt").
+     * @return The catalog of the feeds.
+     * @throws IOException If a feed cannot be listed or a header cannot be read.
+     */
+    static FeedCatalog scan(List<GtfsFeed> feeds, Collection<String> fileNames) throws IOException {
+        Map<String, List<FeedFile>> filesByName = new HashMap<>();
+        for (String fileName : fileNames) filesByName.put(fileName, new ArrayList<>());
+
+        FeedCatalog catalog = new FeedCatalog(filesByName);
+        try {
+            for (GtfsFeed feed : feeds) {
+                for (String name : feed.listFiles()) {
+                    List<FeedFile> files = filesByName.get(name);
+                    if (files != null) files.add(describe(feed, name));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Release the files described so far
+            try {
+                catalog.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        return catalog;
+    }
+
+    /**
+     * Reads the metadata and the header of one file. A UTF-8 byte order mark before the header is
+     * skipped and counted as part of the header. The stream is not closed: it is handed to the
+     * {@link FeedFile}, positioned after the header, so {@link FeedFile#openRows()} reads the rows on
+     * from it. A file with no rows, or whose rows the feed serves from another source, is closed.
+     *
+     * @return The file; the caller must close it if its rows are never read.
+     */
+    static FeedFile describe(GtfsFeed feed, String fileName) throws IOException {
+        try (GtfsCsvReader reader = new GtfsCsvReader(feed.openHead(fileName), HEADER_BUFFER_SIZE)) {
+            try {
+                reader.skipByteOrderMark();
+            } catch (IOException e) {
+                throw new IOException(fileName + " of " + feed.getName() + ": " + e.getMessage(), e);
+            }
+            String[] header = reader.readRecord();
+            long headerLength = (header == null) ? 0 : reader.position();
+            InputStream rows = (header != null && feed.readsRowsFromHead(fileName)) ? reader.detach() : null;
+            return new FeedFile(feed, fileName, feed.fileSize(fileName), feed.lastModified(fileName), header, headerLength, rows);
+        }
+    }
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return The copies of the file in feed order; empty if no feed contains it.
+     */
+    List<FeedFile> filesOf(String fileName) {
+        List<FeedFile> files = filesByName.get(fileName);
+        return (files == null) ? Collections.<FeedFile>emptyList() : files;
+    }
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stop_times.txt").
+     * @return Sum of the sizes of all copies of the file; 0 if no feed contains it.
+     */
+    long totalSize(String fileName) {
+        long total = 0;
+        for (FeedFile file : filesOf(fileName)) total += file.size();
+        return total;
+    }
+
+    /**
+     * Closes the header-scan streams that no merge has taken over.
+     *
+     * @throws IOException If a stream cannot be closed; the others are still closed.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (List<FeedFile> files : filesByName.values()) {
+            for (FeedFile file : files) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * FeedFile is one GTFS file (e.g., "stops.txt") of one feed, the unit the merge methods read.
+ * <p>
+ * Instances are created by {@link FeedCatalog}, which records the file's size, modification time and
+ * header once. The stream the header was read from is kept, positioned at the first data row, and
+ * {@link #openRows()} hands it to the merge, so a file is opened once for its header and its rows.
+ * </p>
+ */
+final class FeedFile implements Closeable {
+
+    private final GtfsFeed feed;
+    private final String fileName;
+    private final long size;
+    private final long lastModified;
+
+    // Header of the file (null for an empty file) and its length in bytes, including the line break
+    private final String[] header;
+    private final long headerLength;
+
+    // Stream of the header scan, positioned after the header, until the rows are read from it
+    private InputStream rows;
+
+    /**
+     * @param rows The stream the header was read from, positioned at the first data row, or
+     *             {@code null} if {@link #openRows()} must open the file; closed with this file.
+     */
+    FeedFile(GtfsFeed feed, String fileName, long size, long lastModified, String[] header, long headerLength, InputStream rows) {
+        this.feed = feed;
+        this.fileName = fileName;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.header = header;
+        this.headerLength = headerLength;
+        this.rows = rows;
+    }
+
+    GtfsFeed getFeed() {
+        return feed;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return The size of the file in bytes, 0 if unknown.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return The modification time in milliseconds since the epoch, 0 if unknown.
+     */
+    long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The number of bytes of the header line, including the line break.
+     */
+    long headerLength() {
+        return headerLength;
+    }
+
+    /**
+     * @return The column names of the file, or {@code null} if the file is empty.
+     */
+    String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return A new stream over all bytes of the file, header included; the caller must close it.
+     * @throws IOException If the file cannot be opened.
+     */
+    InputStream open() throws IOException {
+        return feed.openFile(fileName);
+    }
+
+    /**
+     * Opens the file positioned after the header, at the first data row.
+     * <p>
+     * The first call returns the stream {@link FeedCatalog} read the header from, so the header is
+     * neither read nor decompressed again. Later calls, such as the second pass of a two-pass merge,
+     * open the file anew and skip the header, which seeks on plain files.
+     * </p>
+     *
+     * @return A stream over the data rows; the caller must close it.
+     * @throws IOException If the file cannot be opened or is shorter than its recorded header.
+     */
+    InputStream openRows() throws IOException {
+        InputStream scanned = rows;
+        if (scanned != null) {
+            rows = null;
+            return scanned;
+        }
+
+        InputStream in = open();
+        try {
+            long remaining = headerLength;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    // skip() may give up early; fall back to reading
+                    if (in.read() < 0) throw new EOFException(this + " changed while merging");
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the stream of the header scan if the rows were never read from it. {@link #openRows()}
+     * still works afterwards and opens the file anew.
+     */
+    @Override
+    public void close() throws IOException {
+        InputStream scanned = rows;
+        rows = null;
+        if (scanned != null) scanned.close();
+    }
+
+    @Override
+    public String toString() {
+        return feed.getName() + "/" + fileName;
+    }
+}
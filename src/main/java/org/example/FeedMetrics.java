@@ -0,0 +1,67 @@
+package org.example;
+
+/**
+ * Metrics of one GTFS table of one input feed.
+ */
+public final class FeedMetrics {
+
+    private final String feedName;
+    private long rowsRead;
+    private long rowsDropped;
+    private long bytesIn;
+    private long parseNanos;
+
+    // Flight Recorder event of the parse phase, open until finish
+    Object parseEvent;
+
+    FeedMetrics(String feedName) {
+        this.feedName = feedName;
+    }
+
+    void finish(long rowsRead, long rowsDropped, long bytesIn, long parseNanos) {
+        this.rowsRead = rowsRead;
+        this.rowsDropped = rowsDropped;
+        this.bytesIn = bytesIn;
+        this.parseNanos = parseNanos;
+    }
+
+    /**
+     * @return The name of the feed (folder or ZIP file name).
+     */
+    public String getFeedName() {
+        return feedName;
+    }
+
+    /**
+     * @return Data rows read from the file, blank lines not included.
+     */
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return Rows dropped because their ID was empty.
+     */
+    public long getRowsDropped() {
+        return rowsDropped;
+    }
+
+    /**
+     * @return Uncompressed bytes read from the file, header included.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return Time spent reading the file, in nanoseconds.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    @Override
+    public String toString() {
+        return feedName + ": " + rowsRead + " rows read, " + rowsDropped + " dropped, " + bytesIn + " bytes";
+    }
+}
@@ -0,0 +1,163 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * FingerprintIndex numbers keys in the order they are first seen, using an open-addressing hash
+ * index over primitive arrays.
+ * <p>
+ * The index is two parallel arrays, the 64-bit fingerprint of each key and the slot it was given,
+ * probed linearly; the keys themselves are kept in one more array by slot. There is no entry object
+ * and no boxed value per key as in a {@link java.util.HashMap}, so the stores that keep one value per
+ * key (a row, a pointer, a file offset) hold it in a plain array indexed by slot. Equal fingerprints
+ * are verified against the stored key, so fingerprint collisions never merge different keys.
+ * </p>
+ *
+ * @param <K> Type of the keys.
+ */
+final class FingerprintIndex<K> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Hash table: fingerprint and slot of every occupied position; slot -1 marks a free position
+    private long[] tableFingerprints;
+    private int[] tableSlots;
+    private int mask;
+    private int resizeAt;
+
+    // Keys by slot, in insertion order
+    private Object[] keys;
+    private int size;
+
+    private final ToLongFunction<? super K> fingerprints;
+
+    /**
+     * @param fingerprints Computes the 64-bit fingerprint of a key; equal keys must give equal fingerprints.
+     */
+    FingerprintIndex(ToLongFunction<? super K> fingerprints) {
+        this.fingerprints = fingerprints;
+        allocateTable(INITIAL_CAPACITY * 2);
+        keys = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the slot of a key, giving it the next free slot if it is new. A new key gets the slot
+     * {@code size() - 1} after the call, so callers tell new keys apart by comparing {@link #size()}.
+     *
+     * @param key The key.
+     * @return The slot of the key.
+     */
+    int add(K key) {
+        long fingerprint = fingerprints.applyAsLong(key);
+        int pos = position(fingerprint);
+        while (true) {
+            int slot = tableSlots[pos];
+            if (slot < 0) break;
+            if (tableFingerprints[pos] == fingerprint && keys[slot].equals(key)) return slot;
+            pos = (pos + 1) & mask;
+        }
+
+        // New key: append it and claim the free position
+        if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+        int slot = size++;
+        keys[slot] = key;
+        tableFingerprints[pos] = fingerprint;
+        tableSlots[pos] = slot;
+        if (size > resizeAt) rehash();
+        return slot;
+    }
+
+    /**
+     * Gives the next free slot to a record that never matches another one, such as a row of a table
+     * without an ID column. The slot has no key and is not entered in the hash table.
+     *
+     * @return The new slot.
+     */
+    int addUnique() {
+        if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+        return size++;
+    }
+
+    /**
+     * @return The number of keys, which is also the next free slot.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param slot A slot below {@link #size()}.
+     * @return The key of the slot, {@code null} for a slot from {@link #addUnique()}.
+     */
+    @SuppressWarnings("unchecked")
+    K keyAt(int slot) {
+        return (K) keys[slot];
+    }
+
+    /**
+     * Releases all arrays.
+     */
+    void clear() {
+        keys = null;
+        tableFingerprints = null;
+        tableSlots = null;
+        size = 0;
+    }
+
+    /**
+     * Grows a per-slot array so that it can hold the given slot, doubling its length.
+     */
+    static String[][] ensureSlot(String[][] values, int slot) {
+        return (slot < values.length) ? values : Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+    }
+
+    /**
+     * Grows a per-slot array so that it can hold the given slot, doubling its length.
+     */
+    static int[] ensureSlot(int[] values, int slot) {
+        return (slot < values.length) ? values : Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+    }
+
+    /**
+     * Grows a per-slot array so that it can hold the given slot, doubling its length.
+     */
+    static long[] ensureSlot(long[] values, int slot) {
+        return (slot < values.length) ? values : Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+    }
+
+    // First table position to probe; the fingerprint bits are mixed so that sequential keys spread out
+    private int position(long fingerprint) {
+        long h = fingerprint;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocateTable(int capacity) {
+        tableFingerprints = new long[capacity];
+        tableSlots = new int[capacity];
+        Arrays.fill(tableSlots, -1);
+        mask = capacity - 1;
+        resizeAt = capacity / 3 * 2; // load factor 2/3
+    }
+
+    // Doubles the hash table; the keys keep their slots
+    private void rehash() {
+        long[] oldFingerprints = tableFingerprints;
+        int[] oldSlots = tableSlots;
+        allocateTable(oldSlots.length * 2);
+        for (int i = 0; i < oldSlots.length; i++) {
+            int slot = oldSlots[i];
+            if (slot < 0) continue;
+            long fingerprint = oldFingerprints[i];
+            int pos = position(fingerprint);
+            while (tableSlots[pos] >= 0) pos = (pos + 1) & mask;
+            tableFingerprints[pos] = fingerprint;
+            tableSlots[pos] = slot;
+        }
+    }
+}
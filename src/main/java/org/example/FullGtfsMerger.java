@@ -2,12 +2,12 @@ package org.example;
 
 import java.io.*;
 import java.util.*;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 /**
@@ -35,15 +35,367 @@ public class FullGtfsMerger {
         PRIMARY_ID_FIELDS.put("translations.txt", new String[]{"table_name", "field_name", "language", "record_id", "record_sub_id", "field_value"});
     }
 
+    // Composite-key tables are merged with an external sort instead of an in-memory map when enabled
+    private boolean externalSort = false;
+
+    // Heap budget (in bytes) for buffering rows when the external sort is used
+    private long externalSortMemory = 64L * 1024 * 1024;
+
+    /**
+     * Enables or disables the external-sort merge engine for tables with composite keys
+     * (stop_times.txt, shapes.txt, calendar_dates.txt, frequencies.txt, translations.txt).
+     * <p>
+     * When enabled, rows are sorted in bounded runs that are written to temporary files and then
+     * k-way merged, so the heap used by a table stays within {@link #setExternalSortMemory(long)}
+     * no matter how large the feeds are. The merged output is identical to the in-memory merge.
+     * </p>
+     *
+     * @param externalSort {@code true} to use the external sort, {@code false} (default) to merge in memory.
+     */
+    public void setExternalSort(boolean externalSort) {
+        this.externalSort = externalSort;
+    }
+
+    /**
+     * Sets the approximate heap budget used by the external-sort merge engine.
+     *
+     * @param bytes Number of bytes of rows kept in memory before a run is written to disk (default 64 MB).
+     * @throws IllegalArgumentException If {@code bytes} is not positive.
+     */
+    public void setExternalSortMemory(long bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("External sort memory must be positive");
+        this.externalSortMemory = bytes;
+    }
+
+    // Share of the maximum heap at which in-memory tables spill to disk; 0 disables spilling
+    private double heapSpillThreshold = 0;
+
+    /**
+     * Lets in-memory merges spill to disk when the heap fills up, instead of failing with an {@link OutOfMemoryError}.
+     * <p>
+     * When enabled, the JVM reports every time a heap pool is still fuller than {@code fraction} of its
+     * maximum size after a garbage collection. Tables that are being merged in memory at that moment
+     * move their rows to the external sort (see {@link #setExternalSort(boolean)}) and finish the merge
+     * from sorted runs on disk, using the {@link #setExternalSortMemory(long)} budget. The output is the
+     * same; the merge only gets slower. Has no effect on tables merged with the external sort or the
+     * off-heap row store. The threshold is a JVM-wide setting.
+     * </p>
+     *
+     * @param fraction Share of the maximum heap, greater than 0 and less than 1 (for example 0.8), or 0 (default) to disable spilling.
+     * @throws IllegalArgumentException If {@code fraction} is outside [0, 1).
+     */
+    public void setHeapSpillThreshold(double fraction) {
+        if (!(fraction >= 0 && fraction < 1)) throw new IllegalArgumentException("Heap spill threshold must be between 0 and 1");
+        this.heapSpillThreshold = fraction;
+    }
+
+    // Merged rows are kept in direct (off-heap) memory instead of on the heap when enabled
+    private boolean offHeapRows = false;
+
+    /**
+     * Enables or disables the off-heap row store.
+     * <p>
+     * When enabled, the merged rows are encoded into direct memory buffers and the heap only keeps
+     * each key with a pointer to its row. This greatly reduces heap usage and GC pauses on large
+     * tables such as stop_times.txt and shapes.txt. Direct memory is limited by the JVM option
+     * {@code -XX:MaxDirectMemorySize}. Tables merged with the external sort
+     * ({@link #setExternalSort(boolean)}) are not affected.
+     * </p>
+     *
+     * @param offHeapRows {@code true} to store rows off-heap, {@code false} (default) to keep them on the heap.
+     */
+    public void setOffHeapRows(boolean offHeapRows) {
+        this.offHeapRows = offHeapRows;
+    }
+
+    // Maximum number of shared values per column and generation; 0 disables interning
+    private int internPoolSize = 4096;
+
+    /**
+     * Sets the size of the per-column intern pool used while rows are aligned.
+     * <p>
+     * Values such as trip_id, stop_id, pickup_type or drop_off_type repeat millions of times in
+     * stop_times.txt. With interning, equal values of a column share one {@code String} instance,
+     * which roughly halves the heap retained by the merged rows. Each column keeps at most about
+     * twice this many values; older values are evicted, and columns whose values don't repeat are
+     * skipped automatically. Interning is only used when the rows are kept on the heap.
+     * </p>
+     *
+     * @param internPoolSize Number of values per column (default 4096), or 0 to disable interning.
+     * @throws IllegalArgumentException If {@code internPoolSize} is negative.
+     */
+    public void setInternPoolSize(int internPoolSize) {
+        if (internPoolSize < 0) throw new IllegalArgumentException("Intern pool size cannot be negative");
+        this.internPoolSize = internPoolSize;
+    }
+
+    // Number of tables merged at the same time when no executor is given
+    private int parallelism = 1;
+
+    // Caller-provided executor for the table merges (optional)
+    private ExecutorService executor;
+
+    /**
+     * Sets how many GTFS tables are merged concurrently.
+     * <p>
+     * A value of 1 (default) merges the tables one after another on the calling thread.
+     * Larger values use an internal thread pool that is created for each merge and shut down afterwards.
+     * Ignored when an executor is set with {@link #setExecutor(ExecutorService)}.
+     * </p>
+     *
+     * @param parallelism Number of worker threads, for example {@code Runtime.getRuntime().availableProcessors()}.
+     * @throws IllegalArgumentException If {@code parallelism} is less than 1.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the executor used to merge the GTFS tables concurrently.
+     * <p>
+     * The executor is not shut down by the merger. Pass {@code null} to go back to {@link #setParallelism(int)}.
+     * </p>
+     *
+     * @param executor The executor that runs one task per table, or {@code null}.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Number of threads that parse one large file, and the size of the byte ranges they parse
+    private int parseParallelism = 1;
+    private long parseChunkSize = ChunkedCsvParser.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Sets how many threads parse a single large GTFS file.
+     * <p>
+     * With a value above 1, a file from a feed folder (or an extracted ZIP file) that is at least two
+     * chunks long is split into byte ranges at record boundaries, taking quoted fields with line breaks
+     * into account. The ranges are parsed in parallel on a fork-join pool and their rows are merged in
+     * the original file order, so duplicates are resolved exactly as in a sequential read. This speeds
+     * up the merge of one huge table such as stop_times.txt, which {@link #setParallelism(int)} alone
+     * cannot split. ZIP entries streamed in place are always parsed sequentially.
+     * </p>
+     *
+     * @param parseParallelism Number of parser threads per file; 1 (default) parses every file sequentially.
+     * @throws IllegalArgumentException If {@code parseParallelism} is less than 1.
+     */
+    public void setParseParallelism(int parseParallelism) {
+        if (parseParallelism < 1) throw new IllegalArgumentException("Parse parallelism must be at least 1");
+        this.parseParallelism = parseParallelism;
+    }
+
+    /**
+     * Sets the size of the byte ranges that are parsed in parallel (see {@link #setParseParallelism(int)}).
+     *
+     * @param bytes Target chunk size in bytes (default 8 MB).
+     * @throws IllegalArgumentException If {@code bytes} is less than 1.
+     */
+    public void setParseChunkSize(long bytes) {
+        if (bytes < 1) throw new IllegalArgumentException("Parse chunk size must be at least 1 byte");
+        this.parseChunkSize = bytes;
+    }
+
+    // Reading, deduplication and writing of a table run on separate threads when enabled
+    private boolean pipelined = false;
+
+    /**
+     * Runs the stages of every table merge on separate threads, connected by bounded buffers.
+     * <p>
+     * When enabled, a reader thread tokenizes each input file and aligns its rows with the reference
+     * header while the merging thread builds the keys and deduplicates them; once all inputs are read,
+     * the merging thread reads the merged rows back from the store while a writer thread encodes and
+     * writes them. The stages exchange batches of rows through small ring buffers, so a slow stage holds
+     * back the others and memory use stays bounded. Writing still starts only after the last input row,
+     * because a later row can replace any earlier one. Files parsed in chunks with
+     * {@link #setParseParallelism(int)} use the chunk parser threads instead of the reader thread.
+     * Each table merge uses up to two extra threads.
+     * </p>
+     *
+     * @param pipelined {@code true} to run the merge stages on separate threads.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    // Tables are merged in two passes over the input files when enabled
+    private boolean twoPass = false;
+
+    /**
+     * Merges every table in two passes that keep only the keys in memory, not the rows.
+     * <p>
+     * The first pass decodes only the ID columns of each row and remembers, for every key, the file,
+     * byte offset and length of the row that currently wins. The second pass reads just the winning
+     * rows back from the input files and writes them. Heap use then grows with the number of keys
+     * instead of with the number of rows times their width, and the columns of overwritten rows are
+     * never decoded, at the cost of reading the winning rows a second time. Only inputs stored as files
+     * (feed folders and extracted ZIP files) can be read back; tables with a copy that is streamed from
+     * a ZIP entry are merged in one pass as usual. When enabled, this replaces the row store options
+     * ({@link #setOffHeapRows(boolean)}, {@link #setExternalSort(boolean)}, {@link #setHeapSpillThreshold(double)})
+     * and the parallel parsing of {@link #setParseParallelism(int)} for the tables it merges.
+     * </p>
+     *
+     * @param twoPass {@code true} to merge tables in two passes.
+     */
+    public void setTwoPass(boolean twoPass) {
+        this.twoPass = twoPass;
+    }
+
+    // Every output field is quoted by default
+    private boolean minimalQuoting = false;
+
+    /**
+     * Quotes an output field only when it contains a comma, a double quote or a line break.
+     * <p>
+     * By default every field of the merged files is enclosed in double quotes. Without them a file
+     * like stop_times.txt, which consists mostly of short values, is about a quarter smaller and
+     * faster to write, load and compress. Both forms are valid GTFS and read back to the same values;
+     * only an empty field and a missing one can no longer be told apart, which GTFS does not do either.
+     * </p>
+     *
+     * @param minimalQuoting {@code true} to quote only the fields that need it.
+     */
+    public void setMinimalQuoting(boolean minimalQuoting) {
+        this.minimalQuoting = minimalQuoting;
+    }
+
+    // ZIP feeds are read in place by default; extraction to temporary folders is optional
+    private boolean extractZips = false;
+
+    /**
+     * Chooses whether {@link #mergeFeedsFromZips(String, String, String)} extracts the ZIP files first.
+     * <p>
+     * By default (false) every GTFS file is streamed straight from its ZIP entry into the CSV reader,
+     * so nothing is written to the temporary folder. Set to {@code true} to extract each ZIP into a
+     * temporary folder and merge from the extracted files instead.
+     * </p>
+     *
+     * @param extractZips {@code true} to extract the ZIP files before merging.
+     */
+    public void setExtractZips(boolean extractZips) {
+        this.extractZips = extractZips;
+    }
+
+    // Number of threads that extract ZIP files when extraction is enabled
+    private int unzipParallelism = 1;
+
+    /**
+     * Sets how many threads extract the ZIP files when {@link #setExtractZips(boolean)} is enabled.
+     * <p>
+     * Extraction always runs in the background: large entries are extracted by tasks of their own,
+     * largest first, and a table is merged as soon as every feed's copy of it has been extracted,
+     * while the other entries are still being extracted. More threads extract several archives and
+     * entries at the same time.
+     * </p>
+     *
+     * @param unzipParallelism Number of extraction threads (default 1).
+     * @throws IllegalArgumentException If {@code unzipParallelism} is less than 1.
+     */
+    public void setUnzipParallelism(int unzipParallelism) {
+        if (unzipParallelism < 1) throw new IllegalArgumentException("Unzip parallelism must be at least 1");
+        this.unzipParallelism = unzipParallelism;
+    }
+
+    // Files in feed folders of at least this size are read memory-mapped; 0 disables mapping
+    private long memoryMapThreshold = 0;
+
+    /**
+     * Reads large GTFS files from feed folders (and extracted ZIP files) through memory mappings.
+     * <p>
+     * Files of at least {@code bytes} bytes are mapped into memory in windows with
+     * {@code FileChannel.map} and parsed from the mapped pages, so the kernel page cache serves the
+     * reads without {@code read} system calls. Files larger than 2 GB are supported. This mostly pays
+     * off for very large tables such as stop_times.txt and shapes.txt; ZIP entries that are streamed
+     * in place are never mapped.
+     * </p>
+     *
+     * @param bytes Minimum file size for memory-mapped reading (for example 64 MB), or 0 (default) to disable it.
+     * @throws IllegalArgumentException If {@code bytes} is negative.
+     */
+    public void setMemoryMapThreshold(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Memory map threshold cannot be negative");
+        this.memoryMapThreshold = bytes;
+    }
+
+    // Deflate level used when the merged feed is written as a ZIP file
+    private int zipCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Sets the deflate level used when the output path ends with ".zip".
+     * <p>
+     * If the output path passed to the merge methods ends with ".zip", the merged feed is streamed
+     * directly into that GTFS ZIP file instead of being written as loose .txt files.
+     * Level 0 only stores the data (fastest), 9 gives the smallest file, and -1 (default)
+     * uses the standard deflate level.
+     * </p>
+     *
+     * @param level Deflate level from 0 to 9, or -1 for the default level.
+     * @throws IllegalArgumentException If {@code level} is outside -1..9.
+     */
+    public void setZipCompressionLevel(int level) {
+        if (level < -1 || level > 9) throw new IllegalArgumentException("ZIP compression level must be between -1 and 9");
+        this.zipCompressionLevel = level;
+    }
+
+    // A provenance index is written next to folder outputs when enabled, for later delta merges
+    private boolean provenanceIndex = false;
+
+    /**
+     * Enables or disables the provenance index that {@link #mergeFeedDelta(String, String)} needs.
+     * <p>
+     * When enabled, a merge into an output folder also writes {@code <outputFolder>.provenance}
+     * next to it. The index records, for every merged key, which feeds contain it and where, so a
+     * single changed feed can later be applied to the merged output without re-reading the others.
+     * Building the index costs extra memory during the merge (one entry per merged key). ZIP outputs
+     * never get an index. When disabled, a stale index of the output folder is deleted.
+     * </p>
+     *
+     * @param provenanceIndex {@code true} to write the provenance index.
+     */
+    public void setProvenanceIndex(boolean provenanceIndex) {
+        this.provenanceIndex = provenanceIndex;
+    }
+
+    // Receives the metrics of every merge (optional)
+    private MergeMetricsListener metricsListener;
+
+    // Metrics of the last completed merge
+    private volatile MergeMetrics lastMergeMetrics;
+
+    /**
+     * Sets a listener that receives the metrics of every table and of every completed merge,
+     * for example to publish them to a metrics backend.
+     *
+     * @param metricsListener The listener, or {@code null} to remove it.
+     */
+    public void setMetricsListener(MergeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Returns the metrics of the last merge that completed successfully: rows, bytes, duplicates and
+     * time per phase for every table and feed, and the peak heap usage.
+     *
+     * @return The metrics, or {@code null} if no merge has completed yet.
+     */
+    public MergeMetrics getLastMergeMetrics() {
+        return lastMergeMetrics;
+    }
+
     /**
      * Merges multiple GTFS feeds located in subfolders of a given root directory into a single output folder.
      *
      * <p>This method expects the {@code rootFolder} to contain multiple subdirectories,
      * each representing a separate GTFS feed. It validates the input, collects all feed
-     * directories, and delegates the merging process to {@link #mergeFeedDirs(File[], String, String)}.</p>
+     * directories, and delegates the merging process to {@link #mergeFeeds(List, List, File, String, String, MergeMetrics)}.</p>
+     *
+     * <p>A table may also be stored gzip-compressed (for example {@code stop_times.txt.gz}); it is
+     * decompressed while it is read.</p>
      *
      * @param rootFolder   the root folder containing subdirectories, each representing a GTFS feed
-     * @param outputFolder the target folder where the merged GTFS output will be saved
+     * @param outputFolder the target folder where the merged GTFS output will be saved,
+     *                     or a path ending with ".zip" to write the merged feed as a single ZIP file
      * @param headerChoice headerChoice Determines how the reference header is chosen:
      *                    "long"  → Choose the header with the most columns.
      *                    "short" → Choose the header with the fewest columns.
@@ -82,25 +434,35 @@ public class FullGtfsMerger {
         }
 
         // Pass the feed directories to the merge function
-        return mergeFeedDirs(feedDirs, outputFolder, headerChoice);
+        List<GtfsFeed> feeds = new ArrayList<>();
+        for (File dir : feedDirs) feeds.add(new DirectoryFeed(dir, memoryMapThreshold));
+        return mergeFeeds(feeds, Arrays.asList(feedDirs), root, outputFolder, headerChoice, new MergeMetrics());
     }
 
 
     /**
      * Merges multiple GTFS feeds from ZIP files located inside a root directory.
      * <p>
-     * This method looks for all ZIP files in the specified {@code rootFolder},
-     * extracts each ZIP file into a temporary folder, and then merges the GTFS feeds
-     * contained within these folders into a single output folder.
+     * This method looks for all ZIP files in the specified {@code rootFolder} and merges the GTFS feeds
+     * they contain into a single output folder. The GTFS files are read directly from the ZIP entries;
+     * if {@link #setExtractZips(boolean)} is enabled, each ZIP file is extracted into a temporary folder first.
+     * </p>
+     * <p>
+     * Tar archives ({@code .tar}, {@code .tar.gz} or {@code .tgz}) in the root folder are merged as
+     * feeds too. A plain {@code .tar} is read in place: each GTFS file is streamed from its offset in
+     * the archive, without extracting it. A compressed archive cannot seek, so it is decompressed once,
+     * when the feed is opened, into a temporary folder that is deleted after the merge; this needs
+     * temporary disk space for the uncompressed GTFS files of the bundle.
      * </p>
      *
-     * @param rootFolder   The root folder containing GTFS ZIP files.
-     * @param outputFolder The destination folder where the merged GTFS feed will be saved.
+     * @param rootFolder   The root folder containing GTFS ZIP (or tar) files.
+     * @param outputFolder The destination folder where the merged GTFS feed will be saved,
+     *                     or a path ending with ".zip" to write the merged feed as a single ZIP file.
      * @param headerChoice headerChoice Determines how the reference header is chosen:
      *                    "long"  → Choose the header with the most columns.
      *                    "short" → Choose the header with the fewest columns.
      * @return {@code true} if the merge was successful,
-     *         {@code false} if no ZIP files were found or root folder is invalid.
+     *         {@code false} if no ZIP or tar files were found or root folder is invalid.
      * @throws IOException              If any file/folder operation fails (e.g., reading ZIP or writing output).
      * @throws CsvValidationException   If an error occurs while parsing GTFS CSV files inside ZIPs.
      * @throws IllegalArgumentException If {@code rootFolder} or {@code outputFolder} is {@code null}.
@@ -123,135 +485,312 @@ public class FullGtfsMerger {
             return false;
         }
 
-        // List all ZIP files in the root folder
+        // List all ZIP and tar files in the root folder
         // If the ZIP files does not exist, notify the user.
-        File[] zipFiles = root.listFiles(f -> f.isFile() && f.getName().endsWith(".zip"));
+        File[] zipFiles = root.listFiles(f -> f.isFile() && (f.getName().endsWith(".zip") || TarFeed.isTarArchive(f.getName())));
         if (zipFiles == null || zipFiles.length == 0) {
-            System.out.println("No ZIP files found!");
+            System.out.println("No ZIP or tar files found!");
             return false;
         }
 
-        // Extract each ZIP into a temporary folder
-        //temporary folders are added to the tempDirs list.
-        List<File> tempDirs = new ArrayList<>();
-        for (File zip : zipFiles) {
-            File tempDir = Files.createTempDirectory(zip.getName().replace(".zip","")).toFile();
-            unzip(zip, tempDir);   // unzip the file into tempDir
-            tempDirs.add(tempDir);
-        }
-        //The tempDirs list is converted to an array.
-        File[] feedDirs = tempDirs.toArray(new File[0]);
+        MergeMetrics metrics = new MergeMetrics();
+        List<GtfsFeed> feeds = new ArrayList<>();
+
+        // Extraction runs in the background, next to the merge of the tables that are already extracted
+        ExecutorService unzipPool = extractZips ? Executors.newFixedThreadPool(unzipParallelism) : null;
+        try {
+            for (File zip : zipFiles) {
+                if (TarFeed.isTarArchive(zip.getName())) {
+                    // Stream the GTFS files straight from the tar archive
+                    feeds.add(new TarFeed(zip));
+                } else if (extractZips) {
+                    // Extract the ZIP into a temporary folder
+                    File tempDir = Files.createTempDirectory(zip.getName().replace(".zip","")).toFile();
+                    feeds.add(new ExtractedZipFeed(zip, tempDir, unzipPool, memoryMapThreshold, metrics));
+                } else {
+                    // Read the GTFS files straight from the ZIP entries
+                    feeds.add(new ZipFeed(zip));
+                }
+            }
 
-        //  Merge feeds from extracted ZIP folders
-        return mergeFeedDirs(feedDirs, outputFolder, headerChoice);
+            //  Merge feeds from the ZIP files
+            return mergeFeeds(feeds, Arrays.asList(zipFiles), root, outputFolder, headerChoice, metrics);
+        } finally {
+            // Close the opened ZIP files
+            for (GtfsFeed feed : feeds) feed.close();
+            if (unzipPool != null) unzipPool.shutdownNow();
+        }
     }
 
+    /**
+     * Applies one changed feed to a merged output folder without re-reading the other feeds.
+     * <p>
+     * The output must come from a merge into a folder with {@link #setProvenanceIndex(boolean)} enabled.
+     * {@code changedFeed} is the new version of one of the merged feeds, identified by its folder,
+     * ZIP or tar file name. Its old rows are removed, its new rows are added and precedence is resolved
+     * again, so the result is the same as a full merge of the updated feeds. Only the changed feed is
+     * read, plus another feed for the keys whose row that feed has to supply again. A table is merged
+     * again from all feeds if its reference header changes. The index is updated to the new state.
+     * </p>
+     *
+     * @param changedFeed  The folder, ZIP or tar file with the new version of a feed.
+     * @param outputFolder The merged output folder to update.
+     * @return {@code true} if the output was updated,
+     *         {@code false} if the index or the feed was not found.
+     * @throws IOException              If a file cannot be read or written, or the output no longer matches the index.
+     * @throws CsvValidationException   If a table has to be merged again and a CSV file is malformed.
+     * @throws IllegalArgumentException If an argument is {@code null} or the output is a ZIP file.
+     */
+    public boolean mergeFeedDelta(String changedFeed, String outputFolder)
+            throws IOException, CsvValidationException {
 
+        //null controls
+        if (changedFeed == null || outputFolder == null) {
+            throw new IllegalArgumentException("Changed feed/output folder cannot be null");
+        }
+        if (outputFolder.toLowerCase().endsWith(".zip")) {
+            throw new IllegalArgumentException("Delta merges only support output folders");
+        }
+
+        File changed = new File(changedFeed);
+        File outDir = new File(outputFolder);
+        File indexFile = ProvenanceIndex.fileFor(outDir);
+
+        // The index is written by a full merge with setProvenanceIndex(true)
+        if (!outDir.isDirectory() || !indexFile.isFile()) {
+            System.out.println("No provenance index found; run a full merge with setProvenanceIndex(true) first");
+            return false;
+        }
+        if (!changed.exists()) {
+            System.out.println("Changed feed does not exist");
+            return false;
+        }
+
+        MergeMetrics metrics = new MergeMetrics();
+        ProvenanceIndex index = ProvenanceIndex.read(indexFile);
+        int ordinal = index.feedOrdinal(changed.getName());
+        if (ordinal < 0) {
+            System.out.println("Feed " + changed.getName() + " is not part of the merged output; run a full merge");
+            return false;
+        }
+
+        new DeltaMerger(this, PRIMARY_ID_FIELDS).apply(index, ordinal, changed, outDir, metrics);
+        index.write(indexFile);
+
+        publish(metrics);
+        return true;
+    }
 
     /**
-     * Merges all GTFS files from multiple feed directories into a single output folder.
+     * Merges all GTFS files from multiple feeds into a single output folder or ZIP file.
      * <p>
      * This method loops through each GTFS file defined in {@code PRIMARY_ID_FIELDS}
-     * and calls {@link #mergeFileIfExists(File[], String, String, String)} to perform the merge.
-     * It also ensures that the output folder exists and is not inside the input feed directories.
+     * and calls {@link #mergeFileIfExists(FeedCatalog, MergeOutput, String, String, MergeMetrics, ProvenanceIndex)} to perform the merge.
+     * The tables are ordered by their total input size, largest first, and merged concurrently
+     * when a parallelism or an executor is configured.
+     * It also ensures that the output folder exists and is not inside the input root folder.
+     * If {@code outputFolder} ends with ".zip", the merged files are written as entries of that ZIP file.
+     * When the merge completes, its metrics become available from {@link #getLastMergeMetrics()},
+     * and the provenance index is written if {@link #setProvenanceIndex(boolean)} is enabled.
      * </p>
      *
-     * @param feedDirs     Array of GTFS feed directories to merge.
-     * @param outputFolder The folder where the merged GTFS files will be saved.
+     * @param feeds        GTFS feeds (folders or ZIP files) to merge.
+     * @param sources      The folder, ZIP or tar file of each feed, in the same order (recorded in the provenance index).
+     * @param root         The root folder the feeds were found in.
+     * @param outputFolder The folder (or ".zip" file) where the merged GTFS files will be saved.
      * @param headerChoice headerChoice Determines how the reference header is chosen:
      *                    "long"  → Choose the header with the most columns.
      *                    "short" → Choose the header with the fewest columns.
+     * @param metrics      Metrics of this merge, started by the caller.
      * @return {@code true} if the merge is successful.
      * @throws IOException              If there is a problem reading or writing files.
      * @throws CsvValidationException   If there is a problem parsing CSV data.
-     * @throws IllegalArgumentException If the output folder is inside one of the input feed directories.
+     * @throws IllegalArgumentException If the output folder is inside the input root folder.
      */
 // merge
-    private boolean mergeFeedDirs(File[] feedDirs, String outputFolder, String headerChoice)
+    private boolean mergeFeeds(List<GtfsFeed> feeds, List<File> sources, File root, String outputFolder, String headerChoice, MergeMetrics metrics)
             throws IOException, CsvValidationException {
 
-        //merged folder
+        //merged folder or ZIP file
         File outDir = new File(outputFolder);
+        boolean zipOutput = outputFolder.toLowerCase().endsWith(".zip");
 
-        //Create the output folder if it doesn't exist
-        if (!outDir.exists()) outDir.mkdirs();
-
-        if (outDir.getCanonicalPath().startsWith(feedDirs[0].getParentFile().getCanonicalPath())) {
+        if (outDir.getCanonicalPath().startsWith(root.getCanonicalPath())) {
             throw new IllegalArgumentException("Output folder cannot be inside input folder");
         }
 
+        // Records where every merged key comes from, for later delta merges (folder outputs only)
         String choice = (headerChoice != null) ? headerChoice.toLowerCase() : "long";
+        File indexFile = ProvenanceIndex.fileFor(outDir);
+        ProvenanceIndex provenance = (provenanceIndex && !zipOutput) ? ProvenanceIndex.create(choice, feeds, sources) : null;
+
+        // An index from an earlier merge would no longer match the output
+        if (!zipOutput && indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Cannot delete stale provenance index: " + indexFile);
+        }
 
-        // Loop through all GTFS files:
-        // Call mergeFileIfExists for each filename in PRIMARY_ID_FIELDS
-        for (String fileName : PRIMARY_ID_FIELDS.keySet()) {
-            mergeFileIfExists(feedDirs, outputFolder, fileName, choice);
+        //Create the output folder (or ZIP file) if it doesn't exist
+        try (MergeOutput output = zipOutput ? new ZipOutput(outDir, zipCompressionLevel) : new DirectoryOutput(outDir)) {
+            mergeFiles(feeds, output, choice, metrics, provenance);
         }
+        if (provenance != null) provenance.write(indexFile);
 
+        publish(metrics);
         return true;
     }
 
+    /**
+     * Completes the metrics of a finished merge, keeps them as the last metrics and passes them to the listener.
+     */
+    private void publish(MergeMetrics metrics) {
+        metrics.finish();
+        lastMergeMetrics = metrics;
+        MergeMetricsListener listener = metricsListener;
+        if (listener != null) listener.mergeFinished(metrics);
+    }
+
+    /**
+     * Merges every GTFS file defined in {@code PRIMARY_ID_FIELDS} into {@code output},
+     * largest input first, sequentially or on the configured executor.
+     *
+     * @param feeds        GTFS feeds to merge.
+     * @param output       Destination of the merged files.
+     * @param headerChoice "long" or "short"; see {@link #selectHeader(List, String)}.
+     * @param metrics      Receives the scan time and the metrics of every table.
+     * @param provenance   Receives the provenance of every table, or {@code null}.
+     * @throws IOException              If there is a problem reading or writing files.
+     * @throws CsvValidationException   If there is a problem parsing CSV data.
+     */
+    private void mergeFiles(List<GtfsFeed> feeds, MergeOutput output, String headerChoice, MergeMetrics metrics, ProvenanceIndex provenance)
+            throws IOException, CsvValidationException {
+
+        String choice = (headerChoice != null) ? headerChoice.toLowerCase() : "long";
+
+        // List every feed and read every header once; all later steps use this catalog
+        long scanStart = System.nanoTime();
+        try (FeedCatalog catalog = FeedCatalog.scan(feeds, PRIMARY_ID_FIELDS.keySet())) {
+            metrics.addPhase(MergePhase.SCAN, System.nanoTime() - scanStart);
+            mergeCatalog(catalog, output, choice, metrics, provenance);
+        }
+    }
+
+    /**
+     * Merges the tables of a catalog, largest input first, sequentially or on the configured executor.
+     */
+    private void mergeCatalog(FeedCatalog catalog, MergeOutput output, String choice, MergeMetrics metrics, ProvenanceIndex provenance)
+            throws IOException, CsvValidationException {
+
+        // Order the GTFS files by total input size, largest first,
+        // so that the longest merges (usually stop_times.txt and shapes.txt) start first
+        Map<String, Long> inputSizes = new HashMap<>();
+        for (String fileName : PRIMARY_ID_FIELDS.keySet()) inputSizes.put(fileName, catalog.totalSize(fileName));
+        List<String> fileNames = new ArrayList<>(PRIMARY_ID_FIELDS.keySet());
+        fileNames.sort((a, b) -> Long.compare(inputSizes.get(b), inputSizes.get(a)));
+
+        // Single thread: call mergeFileIfExists for each filename one after another
+        if (executor == null && parallelism == 1) {
+            for (String fileName : fileNames) {
+                mergeFileIfExists(catalog, output, fileName, choice, metrics, provenance);
+            }
+            return;
+        }
+
+        // Otherwise submit one task per GTFS file
+        ExecutorService pool = (executor != null) ? executor : Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (String fileName : fileNames) {
+                futures.add(pool.submit(() -> {
+                    mergeFileIfExists(catalog, output, fileName, choice, metrics, provenance);
+                    return null;
+                }));
+            }
+            awaitAll(futures);
+        } finally {
+            // Only shut down the pool we created ourselves
+            if (pool != executor) pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for all table merges to finish and rethrows the first failure.
+     * <p>
+     * If a merge fails, the remaining merges are cancelled.
+     * </p>
+     *
+     * @param futures The submitted table merges.
+     * @throws IOException             If a merge failed with an I/O error or the wait was interrupted.
+     * @throws CsvValidationException  If a merge failed while parsing CSV data.
+     */
+    private void awaitAll(List<Future<Void>> futures) throws IOException, CsvValidationException {
+        try {
+            for (Future<Void> future : futures) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Merge was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof CsvValidationException) throw (CsvValidationException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            for (Future<Void> future : futures) future.cancel(true);
+        }
+    }
+
     /**
      * Extracts the contents of a ZIP file into a specified destination directory.
      * <p>
      * This method iterates through each entry in the ZIP file. If the entry is a directory,
      * it creates the directory in the destination folder. If the entry is a file, it extracts
-     * the file to the destination folder, preserving the folder structure.
+     * the file to the destination folder, preserving the folder structure. The merge methods use
+     * {@link ExtractedZipFeed} instead, which extracts the entries concurrently.
      * </p>
      *
      * @param zipFile The ZIP file to be extracted.
      * @param destDir The destination directory where the contents of the ZIP file will be extracted.
      * @throws IOException If there is an error reading the ZIP file or writing files to the destination.
      */
-// Unzip Method
-    private void unzip(File zipFile, File destDir) throws IOException {
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                File newFile = new File(destDir, entry.getName());
-                if (entry.isDirectory()) newFile.mkdirs();
-                else {
-                    new File(newFile.getParent()).mkdirs();
-                    try (FileOutputStream fos = new FileOutputStream(newFile)) {
-                        byte[] buffer = new byte[1024];
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) fos.write(buffer, 0, len);
-                    }
-                }
-                zis.closeEntry();
+// Unzip Method (package-private for the benchmarks module)
+    void unzip(File zipFile, File destDir) throws IOException {
+        Object event = MergeEvents.INSTANCE.beginUnzip();
+        long extracted = 0;
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            byte[] buffer = new byte[64 * 1024];
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                extracted += ExtractedZipFeed.extractEntry(zip, entries.nextElement(), destDir, buffer);
             }
         }
+        MergeEvents.INSTANCE.endUnzip(event, zipFile.getName(), extracted);
     }
 
 
     /**
-     * Performs the merge operation for a specific file if it exists in any feed folder.
+     * Performs the merge operation for a specific file if it exists in any feed.
      *
-     * @param feedDirs     Array of feed folder paths to check for the file.
-     * @param outputFolder Path of the folder where the merged file will be saved.
+     * @param catalog      Catalog of the feeds, used to find the file.
+     * @param output       Destination of the merged file.
      * @param fileName     Name of the file to merge (e.g., "agency.txt").
      * @param headerChoice Header type to use in the merged file; "long" or "short".
+     * @param metrics      Receives the metrics of the merged table.
+     * @param provenance   Receives the provenance of the merged table, or {@code null}.
      *
      * @throws IOException             If there is a problem reading or writing files.
      * @throws CsvValidationException  If there is a problem reading CSV data.
      */
 
-    private void mergeFileIfExists(File[] feedDirs, String outputFolder, String fileName, String headerChoice) throws IOException,CsvValidationException {
+    private void mergeFileIfExists(FeedCatalog catalog, MergeOutput output, String fileName, String headerChoice, MergeMetrics metrics, ProvenanceIndex provenance) throws IOException,CsvValidationException {
 
-        // find files matching fileName in feed folders
-        // This creates a list of files to merge.
+        // find files matching fileName in the catalog
+        // This gives the list of files to merge.
 
-        // Check the file name and create a list for merging.
         // For example, fileName = "agency.txt"
-        // If [feed1, feed2] is in feedDirs:
-        // - Does feed1/agency.txt exist? If so, add it to the list.
-        // - Does feed2/agency.txt exist? If so, add it to the list.
+        // If [feed1, feed2] contain it:
         // Result: files list = [feed1/agency.txt, feed2/agency.txt]
-        List<File> files = new ArrayList<>();
-        for (File dir : feedDirs) {
-            File f = new File(dir, fileName);
-            if (f.exists()) files.add(f);
-        }
+        List<FeedFile> files = catalog.filesOf(fileName);
 
         // If the file doesn't exist, there's no need to merge.
         if (files.isEmpty()) return;
@@ -261,23 +800,60 @@ public class FullGtfsMerger {
         // "agency.txt" → ["agency_id"]
         String[] idFields = PRIMARY_ID_FIELDS.get(fileName);
 
-        // Output path of the file to be merged
-        File outputFile = new File(outputFolder, fileName);
+        ProvenanceIndex.Table tableProvenance = (provenance == null) ? null : provenance.newTable(fileName, idFields);
+        mergeTable(files, output, fileName, idFields, headerChoice, metrics, tableProvenance);
+        if (provenance != null) provenance.putTable(tableProvenance);
+    }
+
+    /**
+     * Merges one GTFS file with the merge method that fits its ID fields and publishes the table metrics.
+     *
+     * @param files        The copies of the file, in feed order.
+     * @param output       Destination of the merged file.
+     * @param fileName     Name of the file to merge (e.g., "agency.txt").
+     * @param idFields     ID columns of the file; {@code null} or empty if the rows have no ID.
+     * @param headerChoice Header type to use in the merged file; "long" or "short".
+     * @param metrics      Receives the metrics of the merged table.
+     * @param provenance   Receives the provenance of the merged table, or {@code null}.
+     * @throws IOException             If there is a problem reading or writing files.
+     * @throws CsvValidationException  If there is a problem reading CSV data.
+     */
+    void mergeTable(List<FeedFile> files, MergeOutput output, String fileName, String[] idFields, String headerChoice,
+                    MergeMetrics metrics, ProvenanceIndex.Table provenance) throws IOException, CsvValidationException {
 
         // Call the appropriate merge method based on single ID or multiple IDs
-        if (idFields == null || idFields.length == 0) {
-            mergeFileSingleId(files, outputFile, null, headerChoice);
-        } else if (idFields.length == 1) {
-            mergeFileSingleId(files, outputFile, idFields[0], headerChoice);
-        } else {
-            mergeFileMultipleId(files, outputFile, idFields, headerChoice);
+        TableMetrics table = new TableMetrics(fileName);
+        Object event = MergeEvents.INSTANCE.beginTable();
+        try {
+            if (idFields == null || idFields.length == 0) {
+                mergeFileSingleId(files, output, fileName, null, headerChoice, table, provenance);
+            } else if (idFields.length == 1) {
+                mergeFileSingleId(files, output, fileName, idFields[0], headerChoice, table, provenance);
+            } else {
+                mergeFileMultipleId(files, output, fileName, idFields, headerChoice, table, provenance);
+            }
+        } finally {
+            // Files split into ranges never read their rows from the header-scan stream
+            for (FeedFile file : files) file.close();
         }
+
+        MergeEvents.INSTANCE.endTable(event, table);
+        tableFinished(metrics, table);
+    }
+
+    /**
+     * Adds a completed table to the merge metrics and passes it to the metrics listener.
+     */
+    void tableFinished(MergeMetrics metrics, TableMetrics table) {
+        metrics.addTable(table);
+        MergeMetricsListener listener = metricsListener;
+        if (listener != null) listener.tableMerged(table);
     }
 
     /**
      * Selects the appropriate CSV header from a list of input files based on the specified choice.
      * <p>
-     * This method reads the first line (header) from each CSV file in the input list and collects them.
+     * This method collects the header of each CSV file in the input list, as recorded by the {@link FeedCatalog}.
      * Then, depending on the {@code headerChoice} parameter, it selects:
      * <ul>
      *     <li>{@code "long"}: the header with the most columns</li>
@@ -289,27 +865,39 @@ public class FullGtfsMerger {
      * @param inputFiles   The list of CSV files to examine for headers.
      * @param headerChoice The selection criteria for choosing the header: "long", "short", or any other value.
      * @return The selected header as an array of strings.
-     * @throws IOException If there is a problem reading any of the CSV files or if no valid headers are found.
-     * @throws CsvValidationException If a CSV file is malformed.
+     * @throws IOException If no valid headers are found.
      */
-    private String[] selectHeader(List<File> inputFiles, String headerChoice) throws IOException, CsvValidationException {
+    // selectHeader and the merge methods are package-private so the benchmarks module can measure them directly
+    String[] selectHeader(List<FeedFile> inputFiles, String headerChoice) throws IOException {
+        Object event = MergeEvents.INSTANCE.beginHeader();
+
         // List to store the headers from all input files
         List<String[]> headers = new ArrayList<>();
 
         // Loop through each input file
-        for (File file : inputFiles) {
-            try (CSVReader reader = new CSVReader(new FileReader(file))) {
-                String[] line = reader.readNext();
-                // If the header exists and has columns, add it to the headers list
-                if (line != null && line.length > 0) headers.add(line);
-            }
+        for (FeedFile file : inputFiles) {
+            String[] line = file.getHeader();
+            // If the header exists and has columns, add it to the headers list
+            if (line != null && line.length > 0) headers.add(line);
         }
 
         // If no valid headers were found in any file, throw an exception
         if (headers.isEmpty()) throw new IOException("No valid headers found in input files.");
 
-        // Select the header based on the user's choice
+        String[] selected = chooseHeader(headers, headerChoice);
+        MergeEvents.INSTANCE.endHeader(event, inputFiles.get(0).getFileName(), headers.size(), selected.length);
+        return selected;
+    }
 
+    /**
+     * Chooses the reference header among the non-empty headers of a file, in feed order.
+     *
+     * @param headers      The headers; must not be empty.
+     * @param headerChoice "long", "short", or any other value for the first header.
+     * @return The selected header.
+     */
+    static String[] chooseHeader(List<String[]> headers, String headerChoice) {
+        // Select the header based on the user's choice
         switch (headerChoice) {
             case "long":   // Return the header with the most columns
                 return headers.stream().max(Comparator.comparingInt(a -> a.length)).orElse(headers.get(0));
@@ -330,17 +918,23 @@ public class FullGtfsMerger {
      * </p>
      *
      * @param inputFiles  The list of CSV files to merge.
-     * @param outputFile  The file where the merged CSV will be written.
+     * @param output      Destination of the merged CSV file.
+     * @param fileName    Name of the merged file (e.g., "stop_times.txt").
      * @param idFields    Array of column names used as unique identifiers for merging rows.
      * @param headerChoice Determines which header to use from the input files: "long" for the header with the most columns,
      *                     "short" for the header with the fewest columns
+     * @param metrics    Receives the rows, bytes and phase times of the table.
+     * @param provenance Receives the feed and row of every key, or {@code null}.
      * @throws IOException If there is a problem reading from or writing to a file.
      * @throws CsvValidationException If any input CSV file is malformed.
      */
-    private void mergeFileMultipleId(List<File> inputFiles, File outputFile, String[] idFields, String headerChoice) throws IOException, CsvValidationException {
+    void mergeFileMultipleId(List<FeedFile> inputFiles, MergeOutput output, String fileName, String[] idFields, String headerChoice, TableMetrics metrics, ProvenanceIndex.Table provenance) throws IOException, CsvValidationException {
 
         // Select the reference header based on headerChoice ("long" or "short")
+        long headerStart = System.nanoTime();
         String[] refHeader = selectHeader(inputFiles, headerChoice);
+        metrics.addPhase(MergePhase.HEADER, System.nanoTime() - headerStart);
+        if (provenance != null) provenance.setReferenceHeader(refHeader);
 
         // Map each column name in refHeader to its index for easy lookup
         Map<String, Integer> refIndex = new HashMap<>();
@@ -350,47 +944,56 @@ public class FullGtfsMerger {
         int[] idIndexes = new int[idFields.length];
         for (int i = 0; i < idFields.length; i++) idIndexes[i] = refIndex.getOrDefault(idFields[i], -1);
 
-        //Map to store merged rows keyed by concatenated ID values
-        //Key → ID
-        // Value → row
-        Map<String, String[]> idToRow = new LinkedHashMap<>();
-
-        // Loop through each input CSV file
-        for (File file : inputFiles) {
-            try (CSVReader reader = new CSVReader(new FileReader(file))) {
-                // Read the header of the current file
-                String[] fileHeader = reader.readNext();
-                if (fileHeader == null) continue; // skip empty files
+        // Builds a typed key from the ID fields of each row
+        CompositeKeyFactory keyFactory = new CompositeKeyFactory(idIndexes);
 
-                // Map column names in current file to their indexes
-                Map<String, Integer> fileIndex = new HashMap<>();
-                for (int i = 0; i < fileHeader.length; i++) fileIndex.put(fileHeader[i], i);
+        // Two-pass mode: locate the winning records first, then read back only those
+        if (twoPass && TwoPassMerge.supports(inputFiles)) {
+            int[] keyColumns = Arrays.stream(idIndexes).filter(i -> i != -1).toArray();
+            try (TwoPassMerge merge = new TwoPassMerge(refHeader, keyColumns, keyFactory::keyFor)) {
+                merge.index(inputFiles, metrics, provenance);
+                writeMergedFile(output, fileName, refHeader, merge, metrics);
+            }
+            return;
+        }
 
-                // Read each row in the CSV file
-                String[] row;
-                while ((row = reader.readNext()) != null) {
-                    if (row.length == 0) continue; // skip empty rows
+        //Store for merged rows keyed by their ID values
+        //Key → ID
+        // Value → row
+        try (DedupeStore<CompositeKey> idToRow = newCompositeDedupeStore()) {
 
-                    // Align row with reference header (fill missing columns with "")
-                    String[] alignedRow = new String[refHeader.length];
-                    for (String col : refHeader) {
-                        Integer idx = fileIndex.get(col);
-                        alignedRow[refIndex.get(col)] = (idx != null && idx < row.length) ? row[idx] : "";
-                    }
+            // Shares repeated values between rows (null if the rows are not kept on the heap)
+            ValueInterner interner = newInterner(true, refHeader.length);
+            ChunkedCsvParser csvParser = new ChunkedCsvParser(parseParallelism, parseChunkSize, pipelined);
 
-                    // Build a unique key using all ID fields
-                    StringBuilder keyBuilder = new StringBuilder();
-                    for (int idx : idIndexes) if (idx != -1) keyBuilder.append(alignedRow[idx]).append("_");
+            // Loop through each input CSV file
+            for (FeedFile file : inputFiles) {
+                // Header of the current file, from the catalog
+                String[] fileHeader = file.getHeader();
+                if (fileHeader == null) continue; // skip empty files
 
-                    // Add the row to the map (overwrites duplicates with the same key)
-                    idToRow.put(keyBuilder.toString(), alignedRow);
-                }
+                FeedMetrics feedMetrics = metrics.startFeed(file.getFeed().getName());
+                if (provenance != null) provenance.startFeed(file.getFeed(), fileHeader);
+                long parseStart = System.nanoTime();
+
+                // Position of every reference column in the current file
+                ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+
+                // Read each row in the CSV file (empty rows are skipped by the reader) and align it with
+                // the reference header (missing columns become ""); large files are parsed in parallel
+                // chunks but consumed in file order
+                ChunkedCsvParser.Result result = csvParser.parse(file, projection::align, (record, alignedRow) -> {
+                    if (interner != null) interner.internRow(alignedRow);
+                    if (provenance != null) provenance.add(record, alignedRow);
+
+                    // Add the row to the store under the key of all ID fields
+                    // (overwrites duplicates with the same key)
+                    idToRow.put(keyFactory.keyFor(alignedRow), alignedRow);
+                });
+                metrics.finishFeed(feedMetrics, result.rowsRead, result.rowsDropped, result.bytesRead, System.nanoTime() - parseStart);
             }
-        }
-        // Write merged data to the output CSV file
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outputFile))) {
-            writer.writeNext(refHeader); // write the header first
-            for (String[] row : idToRow.values()) writer.writeNext(row); // write each merged row
+            // Write merged data to the output CSV file
+            writeMergedFile(output, fileName, refHeader, idToRow, metrics);
         }
     }
 
@@ -404,17 +1007,23 @@ public class FullGtfsMerger {
      * </p>
      *
      * @param inputFiles The list of CSV files to merge.
-     * @param outputFile The file where the merged CSV will be written.
+     * @param output     Destination of the merged CSV file.
+     * @param fileName   Name of the merged file (e.g., "stops.txt").
      * @param idField    The name of the column used as a unique identifier for merging rows. If null or not present,
      *                   UUIDs are generated for each row.
      * @param headerChoice Determines which header to use from the input files: "long" for the header with the most columns,
      *                     "short" for the header with the fewest columns
+     * @param metrics    Receives the rows, bytes and phase times of the table.
+     * @param provenance Receives the feed and row of every key, or {@code null}.
      * @throws IOException If there is a problem reading from or writing to a file.
      * @throws CsvValidationException If any input CSV file is malformed.
      */
-    private void mergeFileSingleId(List<File> inputFiles, File outputFile, String idField, String headerChoice) throws IOException,CsvValidationException {
+    void mergeFileSingleId(List<FeedFile> inputFiles, MergeOutput output, String fileName, String idField, String headerChoice, TableMetrics metrics, ProvenanceIndex.Table provenance) throws IOException,CsvValidationException {
         // Select the reference header based on the user's choice ("long" or "short")
+        long headerStart = System.nanoTime();
         String[] refHeader = selectHeader(inputFiles, headerChoice);
+        metrics.addPhase(MergePhase.HEADER, System.nanoTime() - headerStart);
+        if (provenance != null) provenance.setReferenceHeader(refHeader);
 
 
         // Map each column name in the reference header to its index
@@ -424,47 +1033,174 @@ public class FullGtfsMerger {
         // Find the index of the ID column
         int idIndex = refIndex.getOrDefault(idField, -1);
 
-        // Map to temporarily store merged rows
+        // Two-pass mode: locate the winning records first, then read back only those
+        if (twoPass && TwoPassMerge.supports(inputFiles)) {
+            int[] keyColumns = (idIndex == -1) ? new int[0] : new int[]{idIndex};
+            try (TwoPassMerge merge = new TwoPassMerge(refHeader, keyColumns, keyRow -> {
+                // Without an ID column every row is unique; rows with an empty ID are dropped
+                if (idIndex == -1) return TwoPassMerge.UNIQUE;
+                String id = keyRow[idIndex];
+                return id.isEmpty() ? null : id;
+            })) {
+                merge.index(inputFiles, metrics, provenance);
+                writeMergedFile(output, fileName, refHeader, merge, metrics);
+            }
+            return;
+        }
+
+        // Store to temporarily keep merged rows
         // Key → ID (unique), Value → entire row
-        Map<String, String[]> idToRow = new LinkedHashMap<>();
+        try (DedupeStore<String> idToRow = newDedupeStore()) {
 
+            // Shares repeated values between rows (null if the rows are not kept on the heap)
+            ValueInterner interner = newInterner(false, refHeader.length);
+            ChunkedCsvParser csvParser = new ChunkedCsvParser(parseParallelism, parseChunkSize, pipelined);
 
-        // Loop through each CSV file
-        for (File file : inputFiles) {
-            try (CSVReader reader = new CSVReader(new FileReader(file))) {
-                // Read the file header
-                String[] fileHeader = reader.readNext();
+            // Loop through each CSV file
+            for (FeedFile file : inputFiles) {
+                // Header of the file, from the catalog
+                String[] fileHeader = file.getHeader();
                 if (fileHeader == null) continue;
-                // Map column names in this file to their indices
-                Map<String, Integer> fileIndex = new HashMap<>();
-                for (int i = 0; i < fileHeader.length; i++) fileIndex.put(fileHeader[i], i);
-
-                // Read each row from the CSV
-                String[] row;
-                while ((row = reader.readNext()) != null) {
-                    if (row.length == 0) continue;
-                    // Align the row with the reference header (fill missing columns with "")
-                    String[] alignedRow = new String[refHeader.length];
-                    for (String col : refHeader) {
-                        Integer idx = fileIndex.get(col);
-                        alignedRow[refIndex.get(col)] = (idx != null && idx < row.length) ? row[idx] : "";
+
+                FeedMetrics feedMetrics = metrics.startFeed(file.getFeed().getName());
+                if (provenance != null) provenance.startFeed(file.getFeed(), fileHeader);
+                long parseStart = System.nanoTime();
+
+                // Position of every reference column in this file
+                ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+
+                // Index of the ID column in this file
+                int fileIdIndex = (idIndex == -1) ? ColumnProjection.MISSING : projection.fileColumn(idIndex);
+
+                // Read each row from the CSV (empty rows are skipped by the reader);
+                // large files are parsed in parallel chunks but consumed in file order
+                ChunkedCsvParser.Result result = csvParser.parse(file, reader -> {
+                    // Rows without an ID value are dropped before any field is decoded
+                    if (idIndex != -1 && (fileIdIndex == ColumnProjection.MISSING || fileIdIndex >= reader.fieldCount() || reader.isEmpty(fileIdIndex))) {
+                        return null;
                     }
 
+                    // Align the row with the reference header (fill missing columns with "")
+                    return projection.align(reader);
+                }, (record, alignedRow) -> {
+                    if (interner != null) interner.internRow(alignedRow);
+                    if (provenance != null) provenance.add(record, alignedRow);
+
                     // If ID column does not exist, create a unique key using UUID
                     if (idIndex == -1) idToRow.put(UUID.randomUUID().toString(), alignedRow);
                     else {
                         // If ID exists, use its value as the key
-                        String idValue = alignedRow[idIndex];
-                        if (idValue != null && !idValue.isEmpty()) idToRow.put(idValue, alignedRow);
+                        idToRow.put(alignedRow[idIndex], alignedRow);
                     }
-                }
+                });
+                metrics.finishFeed(feedMetrics, result.rowsRead, result.rowsDropped, result.bytesRead, System.nanoTime() - parseStart);
             }
+            // Write the merged data to the output CSV file
+            writeMergedFile(output, fileName, refHeader, idToRow, metrics);
+        }
+    }
+
+    /**
+     * Writes the reference header and every merged row of a store to the output file.
+     *
+     * @param output    Destination of the merged file.
+     * @param fileName  Name of the merged file (e.g., "stops.txt").
+     * @param refHeader The reference header, written first.
+     * @param idToRow   The merged rows, usually the store that collected them.
+     * @param metrics   Receives the dedupe and write times, rows and bytes written.
+     * @throws IOException If the file cannot be written or the store cannot be read.
+     */
+    void writeMergedFile(MergeOutput output, String fileName, String[] refHeader, RowSource idToRow, TableMetrics metrics) throws IOException {
+        try (GtfsCsvWriter writer = new GtfsCsvWriter(metrics.countOutput(output.openFile(fileName)), minimalQuoting)) {
+            writer.writeRow(refHeader); // write the header first
+            metrics.startDedupe();
+            if (!pipelined) {
+                idToRow.forEachRow(row -> { // write each merged row
+                    metrics.rowWritten();
+                    writer.writeRow(row);
+                });
+            } else {
+                // Read the merged rows back on this thread while a writer thread encodes and writes them
+                RowPipeline.consumeInBackground("gtfs-writer-" + fileName, sink -> idToRow.forEachRow(row -> {
+                    metrics.rowWritten();
+                    sink.accept(row);
+                }), (rows, count) -> {
+                    for (int i = 0; i < count; i++) writer.writeRow(rows[i]);
+                });
+            }
+        }
+        metrics.finishWrite();
+    }
+
+    /**
+     * Creates the store that collects the merged rows of a GTFS file with a single-column ID.
+     *
+     * @return An off-heap, spilling or hash-indexed in-memory store, depending on the configuration.
+     */
+    private DedupeStore<String> newDedupeStore() {
+        if (offHeapRows) return new OffHeapDedupeStore<>(HashIndexDedupeStore::fingerprint);
+        if (heapSpillThreshold > 0) {
+            return new SpillingDedupeStore<>(HeapPressureMonitor.withThreshold(heapSpillThreshold), externalSortMemory,
+                    key -> key.getBytes(StandardCharsets.UTF_8), HashIndexDedupeStore::fingerprint);
         }
-        // Write the merged data to the output CSV file
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outputFile))) {
-            writer.writeNext(refHeader);
-            for (String[] row : idToRow.values()) writer.writeNext(row);
+        return new HashIndexDedupeStore<>(HashIndexDedupeStore::fingerprint);
+    }
+
+    /**
+     * Creates the store that collects the merged rows of a GTFS file whose ID consists of several columns.
+     *
+     * @return An external-sort, off-heap, spilling or hash-indexed in-memory store, depending on the configuration.
+     * @throws IOException If the temporary folder of the external sort cannot be created.
+     */
+    private DedupeStore<CompositeKey> newCompositeDedupeStore() throws IOException {
+        if (externalSort) return new ExternalSortDedupeStore<>(externalSortMemory, CompositeKey::toBytes);
+        if (offHeapRows) return new OffHeapDedupeStore<>(CompositeKey::fingerprint);
+        if (heapSpillThreshold > 0) {
+            return new SpillingDedupeStore<>(HeapPressureMonitor.withThreshold(heapSpillThreshold), externalSortMemory,
+                    CompositeKey::toBytes, CompositeKey::fingerprint);
         }
+        return new HashIndexDedupeStore<>(CompositeKey::fingerprint);
+    }
+
+    /**
+     * Creates the store that collects the rows of a GTFS file with a single-column ID, or without ID,
+     * that a delta merge updates.
+     * <p>
+     * A delta merge rewrites the output file it reads rows from, so they cannot be read back from
+     * their files as in a two-pass merge ({@link #setTwoPass(boolean)}); with two passes enabled the
+     * rows go through the external sort instead, which bounds the heap in the same way.
+     * </p>
+     *
+     * @return The store a full merge would use, or an external-sort store in two-pass mode.
+     * @throws IOException If the temporary folder of the external sort cannot be created.
+     */
+    DedupeStore<String> newDeltaStore() throws IOException {
+        if (twoPass) return new ExternalSortDedupeStore<>(externalSortMemory, key -> key.getBytes(StandardCharsets.UTF_8));
+        return newDedupeStore();
+    }
+
+    /**
+     * Creates the store that collects the rows of a GTFS file with a composite ID that a delta merge
+     * updates; see {@link #newDeltaStore()}.
+     *
+     * @return The store a full merge would use, or an external-sort store in two-pass mode.
+     * @throws IOException If the temporary folder of the external sort cannot be created.
+     */
+    DedupeStore<CompositeKey> newCompositeDeltaStore() throws IOException {
+        if (twoPass) return new ExternalSortDedupeStore<>(externalSortMemory, CompositeKey::toBytes);
+        return newCompositeDedupeStore();
+    }
+
+    /**
+     * Creates the intern pool for the aligned rows of one GTFS file.
+     *
+     * @param compositeKeys {@code true} for files whose ID consists of several columns.
+     * @param columnCount   Number of columns in the reference header.
+     * @return A new pool, or {@code null} if interning is disabled or the rows are not kept on the heap.
+     */
+    private ValueInterner newInterner(boolean compositeKeys, int columnCount) {
+        if (internPoolSize == 0 || offHeapRows || (compositeKeys && externalSort)) return null;
+        return new ValueInterner(columnCount, internPoolSize);
     }
 
 
@@ -0,0 +1,417 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * GtfsCsvReader is a small CSV tokenizer for GTFS files that works directly on UTF-8 bytes.
+ * <p>
+ * Every record is split in place: a field is only a start and end offset into the input buffer, and
+ * a quoted field that contains escaped quotes is only marked, then unescaped when it is decoded.
+ * A {@code String} is created only when {@link #field(int)} is called, so fields that the merge never
+ * looks at (columns missing from the reference header, rows that are dropped) cost no allocation at all.
+ * </p>
+ * <p>
+ * A stream is read into one reusable heap buffer. A {@link MappedFileInputStream} is not read at all:
+ * the reader maps windows of the file itself and tokenizes the mapped pages directly, so the bytes of
+ * a mapped file are never copied to the heap except for the fields that are decoded. A record that
+ * crosses the end of a window is found again at the start of the next window, which is mapped from
+ * the start of that record.
+ * </p>
+ * <p>
+ * The format follows RFC 4180, as required by GTFS: fields are separated by commas, may be enclosed
+ * in double quotes, a double quote inside a quoted field is written as two double quotes, and quoted
+ * fields may contain commas and line breaks. Records end with {@code \n} or {@code \r\n}.
+ * Blank lines are skipped.
+ * </p>
+ * <p>
+ * The values returned by the field accessors are only valid until the next call to {@link #next()}.
+ * </p>
+ */
+final class GtfsCsvReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream in;
+
+    // Set when the input is a mapped file, which is read window by window instead of through the stream
+    private final MappedFileInputStream mapped;
+    private final long origin; // file offset the reader started at
+
+    // Set once the unread input has been handed over; the reader no longer owns the stream
+    private boolean detached;
+
+    // Input window: unread bytes are buf[pos, limit). A heap buffer wraps array; a mapped window has no array
+    private ByteBuffer buf;
+    private byte[] array;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    // Number of input bytes dropped from the front of the buffer so far
+    private long discarded;
+
+    // Fields of the current record: buf[starts[i], ends[i]), escaped if the raw bytes need unescaping
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int fieldCount;
+
+    // Bytes of a decoded field that are not in a heap array as they are: unescaped or mapped ones
+    private byte[] scratch = new byte[256];
+    private ByteBuffer view; // second view of a mapped window, for bulk copies into scratch
+
+    /**
+     * @param in The raw bytes of the CSV file; closed together with the reader.
+     */
+    GtfsCsvReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param in         The raw bytes of the CSV file; closed together with the reader. A
+     *                   {@link MappedFileInputStream} is read from its current position up to its end.
+     * @param bufferSize Initial size of the read buffer; it grows if a single record is larger.
+     *                   Mapped files use the window size of the stream instead.
+     */
+    GtfsCsvReader(InputStream in, int bufferSize) {
+        this.in = in;
+        if (in instanceof MappedFileInputStream) {
+            this.mapped = (MappedFileInputStream) in;
+            this.origin = mapped.position();
+            this.buf = ByteBuffer.allocate(0); // nothing mapped yet
+        } else {
+            this.mapped = null;
+            this.origin = 0;
+            this.array = new byte[Math.max(bufferSize, 16)];
+            this.buf = ByteBuffer.wrap(array);
+        }
+    }
+
+    /**
+     * Advances to the next non-blank record.
+     *
+     * @return {@code false} at the end of the input.
+     * @throws IOException If the input cannot be read.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int end = findRecordEnd();
+            if (end < 0) {
+                fieldCount = 0;
+                return false;
+            }
+
+            int recordStart = pos;
+            int contentEnd = end;
+            pos = (end < limit) ? end + 1 : end; // skip the line feed
+
+            // Strip the carriage return of a \r\n line ending
+            if (contentEnd > recordStart && buf.get(contentEnd - 1) == CR) contentEnd--;
+
+            // Skip blank lines
+            if (contentEnd == recordStart) continue;
+
+            tokenize(recordStart, contentEnd);
+            return true;
+        }
+    }
+
+    /**
+     * Reads the next non-blank record and returns all of its fields.
+     *
+     * @return The fields of the record, or {@code null} at the end of the input.
+     * @throws IOException If the input cannot be read.
+     */
+    String[] readRecord() throws IOException {
+        return next() ? row() : null;
+    }
+
+    /**
+     * Skips a UTF-8 byte order mark at the start of the input. The skipped bytes still count towards
+     * {@link #position()}, so a header length measured afterwards includes them.
+     * <p>
+     * Must be called before the first record is read.
+     * </p>
+     *
+     * @return {@code true} if a byte order mark was skipped.
+     * @throws IOException If the input cannot be read, or starts with a UTF-16 byte order mark
+     *                     (GTFS files must be UTF-8).
+     */
+    boolean skipByteOrderMark() throws IOException {
+        while (limit - pos < 3 && !eof) fill();
+        int available = limit - pos;
+        ByteBuffer b = buf;
+        if (available >= 3 && b.get(pos) == (byte) 0xEF && b.get(pos + 1) == (byte) 0xBB && b.get(pos + 2) == (byte) 0xBF) {
+            pos += 3;
+            return true;
+        }
+        if (available >= 2 && ((b.get(pos) == (byte) 0xFF && b.get(pos + 1) == (byte) 0xFE)
+                || (b.get(pos) == (byte) 0xFE && b.get(pos + 1) == (byte) 0xFF))) {
+            throw new IOException("File starts with a UTF-16 byte order mark, but GTFS files must be UTF-8 encoded");
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of input bytes consumed so far: the byte offset (from the start of the stream)
+     *         at which the next record begins.
+     */
+    long position() {
+        return discarded + pos;
+    }
+
+    /**
+     * @return Number of fields in the current record.
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Decodes one field of the current record.
+     *
+     * @param i Field index, must be less than {@link #fieldCount()}.
+     * @return The field value; never {@code null}.
+     */
+    String field(int i) {
+        int start = starts[i];
+        int len = ends[i] - start;
+        if (len == 0) return "";
+        if (escaped[i]) {
+            int n = unescape(start, ends[i]); // may grow scratch
+            return new String(scratch, 0, n, StandardCharsets.UTF_8);
+        }
+        if (array != null) return new String(array, start, len, StandardCharsets.UTF_8);
+
+        // Mapped window: one bulk copy of the field
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        ((Buffer) view).position(start);
+        view.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param i Field index, must be less than {@link #fieldCount()}.
+     * @return {@code true} if the field is empty; nothing is decoded. An escaped field is never empty.
+     */
+    boolean isEmpty(int i) {
+        return ends[i] == starts[i];
+    }
+
+    /**
+     * @return All fields of the current record as strings.
+     */
+    String[] row() {
+        String[] row = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) row[i] = field(i);
+        return row;
+    }
+
+    /**
+     * Hands over the unread input, starting at {@link #position()}, without closing it. A mapped file
+     * is moved to that offset; otherwise the bytes already buffered are put in front of the rest of
+     * the stream, and a stream that has been read to its end is closed, leaving only those bytes.
+     * <p>
+     * The reader must not be used afterwards, and closing it does nothing.
+     * </p>
+     *
+     * @return A stream over the unread input; the caller must close it.
+     * @throws IOException If the stream cannot be closed.
+     */
+    InputStream detach() throws IOException {
+        detached = true;
+        if (mapped != null) {
+            mapped.seek(origin + discarded + pos);
+            return mapped;
+        }
+        InputStream buffered = new ByteArrayInputStream(array, pos, limit - pos);
+        if (!eof) return new SequenceInputStream(buffered, in);
+        in.close();
+        return buffered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!detached) in.close();
+    }
+
+    /**
+     * Finds the line feed that ends the record starting at {@code pos}, reading more input when needed.
+     * Line feeds inside quoted fields do not end the record.
+     *
+     * @return Index of the line feed, {@code limit} for a last record without a line feed,
+     *         or -1 if there is no more input.
+     */
+    private int findRecordEnd() throws IOException {
+        int i = pos;
+        boolean inQuotes = false;
+        while (true) {
+            ByteBuffer b = buf;
+            int lim = limit;
+            while (i < lim) {
+                byte c = b.get(i);
+                if (c == QUOTE) inQuotes = !inQuotes;
+                else if (c == LF && !inQuotes) return i;
+                i++;
+            }
+            if (eof) return (i > pos) ? i : -1;
+
+            // The record continues past the buffer: read more and continue where we stopped
+            int scanned = i - pos;
+            fill();
+            i = pos + scanned;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer (growing it if it is full) and reads more input.
+     */
+    private void fill() throws IOException {
+        if (mapped != null) {
+            remap();
+            return;
+        }
+        if (pos > 0) {
+            System.arraycopy(array, pos, array, 0, limit - pos);
+            limit -= pos;
+            discarded += pos;
+            pos = 0;
+        }
+        if (limit == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+            buf = ByteBuffer.wrap(array);
+        }
+        int n = in.read(array, limit, array.length - limit);
+        if (n < 0) eof = true;
+        else limit += n;
+    }
+
+    /**
+     * Maps the next window of a mapped file, starting at the unread bytes. A record that fills a whole
+     * window doubles the window size, so the window always ends past the unread bytes.
+     */
+    private void remap() throws IOException {
+        long start = origin + discarded + pos;
+        long remaining = mapped.end() - start;
+        int unread = limit - pos;
+        long length = Math.min(Math.min(Math.max(mapped.windowSize(), 2L * unread), Integer.MAX_VALUE), remaining);
+        if (length <= unread) {
+            if (unread < remaining) throw new IOException("Record at offset " + start + " is larger than 2 GB");
+            eof = true;
+            return;
+        }
+        buf = mapped.map(start, length);
+        view = buf.duplicate();
+        discarded += pos;
+        pos = 0;
+        limit = (int) length;
+        eof = (length == remaining);
+    }
+
+    /**
+     * Splits buf[start, end) into fields. The input is never written to: a quoted field is recorded
+     * without its quotes, and one that contains escaped quotes (or bytes after its closing quote) is
+     * marked as escaped and unescaped by {@link #field(int)}.
+     */
+    private void tokenize(int start, int end) {
+        ByteBuffer b = buf;
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            if (i < end && b.get(i) == QUOTE) {
+                // Quoted field: find the closing quote, stepping over "" pairs
+                int contentStart = i + 1;
+                int r = contentStart;
+                int closingQuote = end;
+                boolean hasEscapes = false;
+                while (r < end) {
+                    if (b.get(r) == QUOTE) {
+                        if (r + 1 < end && b.get(r + 1) == QUOTE) {
+                            hasEscapes = true;
+                            r += 2;
+                            continue;
+                        }
+                        closingQuote = r++;
+                        break;
+                    }
+                    r++;
+                }
+                // Anything between the closing quote and the next comma is kept as it is
+                int fieldEnd = r;
+                while (fieldEnd < end && b.get(fieldEnd) != COMMA) fieldEnd++;
+                if (hasEscapes || fieldEnd > r) addField(contentStart, fieldEnd, true);
+                else addField(contentStart, closingQuote, false);
+                i = fieldEnd;
+            } else {
+                // Unquoted field: up to the next comma
+                int fieldStart = i;
+                while (i < end && b.get(i) != COMMA) i++;
+                addField(fieldStart, i, false);
+            }
+
+            if (i >= end) break;
+            i++; // skip the comma
+            if (i == end) {
+                // A trailing comma ends with an empty field
+                addField(end, end, false);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Unescapes the raw bytes of an escaped field into the scratch buffer: "" becomes ", the closing
+     * quote is dropped and the bytes after it are copied as they are.
+     *
+     * @return The number of bytes written, never more than the raw length.
+     */
+    private int unescape(int start, int end) {
+        if (scratch.length < end - start) scratch = new byte[Math.max(end - start, scratch.length * 2)];
+        ByteBuffer b = buf;
+        byte[] out = scratch;
+        int w = 0;
+        boolean inQuotes = true;
+        int r = start;
+        while (r < end) {
+            byte c = b.get(r);
+            if (inQuotes && c == QUOTE) {
+                if (r + 1 < end && b.get(r + 1) == QUOTE) {
+                    out[w++] = QUOTE;
+                    r += 2;
+                    continue;
+                }
+                inQuotes = false; // closing quote
+                r++;
+                continue;
+            }
+            out[w++] = c;
+            r++;
+        }
+        return w;
+    }
+
+    private void addField(int start, int end, boolean needsUnescaping) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            escaped = Arrays.copyOf(escaped, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = needsUnescaping;
+        fieldCount++;
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * GtfsCsvWriter writes merged GTFS rows as UTF-8 CSV straight into a byte buffer.
+ * <p>
+ * Every field is enclosed in double quotes, a double quote inside a field is written as two double
+ * quotes, fields are separated by commas and records end with {@code \n}; a {@code null} field is
+ * written as nothing at all. This is the output of OpenCSV's {@code CSVWriter} with its default
+ * settings, which the merger used before, but the characters are encoded to UTF-8 directly instead
+ * of going through a {@code Writer} in the platform charset. The output is therefore the same on
+ * every platform, whatever {@code file.encoding} is.
+ * </p>
+ * <p>
+ * With minimal quoting, only fields that contain a comma, a double quote or a line break are
+ * enclosed in double quotes, which makes the output considerably smaller. The empty field of a
+ * one-column row is quoted as well, so the row does not turn into a blank line.
+ * </p>
+ */
+final class GtfsCsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    // Replacement for unpaired surrogates, as written by the UTF-8 encoder of the JDK
+    private static final byte REPLACEMENT = '?';
+
+    private final OutputStream out;
+    private final boolean minimalQuoting;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+
+    /**
+     * @param out            The destination; closed together with the writer.
+     * @param minimalQuoting {@code true} to quote only the fields that need it, {@code false} to quote every field.
+     */
+    GtfsCsvWriter(OutputStream out, boolean minimalQuoting) {
+        this.out = out;
+        this.minimalQuoting = minimalQuoting;
+    }
+
+    /**
+     * Writes one record.
+     *
+     * @param row The fields of the record; {@code null} fields are written empty and unquoted.
+     * @throws IOException If the output cannot be written.
+     */
+    void writeRow(String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            String field = row[i];
+            // Separator, two quotes and, per char, at most three bytes or a doubled quote
+            ensure(3 + (field == null ? 0 : 3 * field.length()));
+            if (i > 0) buf[count++] = COMMA;
+            if (minimalQuoting && row.length == 1 && (field == null || field.isEmpty())) {
+                // A lone empty field would be a blank line, which readers skip
+                buf[count++] = QUOTE;
+                buf[count++] = QUOTE;
+                continue;
+            }
+            if (field == null) continue;
+            if (minimalQuoting && !needsQuotes(field)) {
+                encode(field);
+                continue;
+            }
+            buf[count++] = QUOTE;
+            encode(field);
+            buf[count++] = QUOTE;
+        }
+        ensure(1);
+        buf[count++] = LF;
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == COMMA || c == QUOTE || c == LF || c == CR) return true;
+        }
+        return false;
+    }
+
+    // Encodes a field to UTF-8, doubling its double quotes; the buffer has room for it
+    private void encode(String field) {
+        byte[] b = buf;
+        int n = count;
+        int len = field.length();
+        for (int i = 0; i < len; i++) {
+            char c = field.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') b[n++] = QUOTE;
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xC0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(field.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, field.charAt(++i));
+                b[n++] = (byte) (0xF0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[n++] = REPLACEMENT;
+            } else {
+                b[n++] = (byte) (0xE0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        count = n;
+    }
+
+    // Makes room for the given number of bytes, flushing (and for huge fields growing) the buffer
+    private void ensure(int bytes) throws IOException {
+        if (count + bytes <= buf.length) return;
+        flushBuffer();
+        if (bytes > buf.length) buf = new byte[bytes];
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
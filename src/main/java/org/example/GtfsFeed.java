@@ -0,0 +1,95 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * GtfsFeed is a single GTFS feed that the merger reads its files from.
+ * <p>
+ * A feed can be a folder ({@link DirectoryFeed}), a ZIP archive that is read
+ * without extracting it ({@link ZipFeed}) or a tar archive ({@link TarFeed}).
+ * </p>
+ */
+interface GtfsFeed extends Closeable {
+
+    /**
+     * @return A readable name for the feed (folder or archive name).
+     */
+    String getName();
+
+    /**
+     * Lists the files of the feed in one go (one directory listing or one pass over the ZIP entries).
+     *
+     * @return Names of all files at the top level of the feed.
+     */
+    List<String> listFiles();
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return The uncompressed size of the file in bytes, 0 if the file does not exist or the size is unknown.
+     */
+    long fileSize(String fileName);
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return The modification time of the file in milliseconds since the epoch, 0 if unknown.
+     */
+    long lastModified(String fileName);
+
+    /**
+     * Opens a GTFS file of this feed for reading.
+     *
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return A stream over the raw bytes of the file; the caller must close it.
+     * @throws IOException If the file does not exist or cannot be opened.
+     */
+    InputStream openFile(String fileName) throws IOException;
+
+    /**
+     * Opens a GTFS file to read only its first bytes, such as the header.
+     * <p>
+     * Feeds that prepare their files in the background can serve this from the original source
+     * without waiting; by default it is the same as {@link #openFile(String)}.
+     * </p>
+     *
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return A stream over the raw bytes of the file; the caller must close it.
+     * @throws IOException If the file does not exist or cannot be opened.
+     */
+    default InputStream openHead(String fileName) throws IOException {
+        return openFile(fileName);
+    }
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return {@code true} (the default) if the stream of {@link #openHead(String)} reads the same
+     *         bytes as {@link #openFile(String)}, so the stream a header was read from can go on to
+     *         read the rows; {@code false} if the rows should come from {@link #openFile(String)}.
+     */
+    default boolean readsRowsFromHead(String fileName) {
+        return true;
+    }
+
+    /**
+     * Returns the file on disk that holds a GTFS file of this feed, for random access to its records.
+     *
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return The file, or {@code null} if the feed can only stream it.
+     * @throws IOException If the file cannot be made available.
+     */
+    default File localFile(String fileName) throws IOException {
+        return null;
+    }
+
+    /**
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return {@code true} if the streams returned by {@link #openFile(String)} for this file skip
+     *         bytes without reading them, so the file can be read in several byte ranges at once.
+     */
+    default boolean isSeekable(String fileName) {
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.function.ToLongFunction;
+
+/**
+ * HashIndexDedupeStore keeps every winning row on the heap behind an open-addressing hash index.
+ * <p>
+ * This is the default store. Keys are numbered in first-seen order by a {@link FingerprintIndex},
+ * an open-addressing index over primitive arrays, and the rows live in one more array by slot, which
+ * is the output order, so there is no entry object and no linked list per row as in a
+ * {@link java.util.LinkedHashMap}. For single-column IDs the stored key is the row's own ID value,
+ * so a row costs only a few array cells beyond its fields.
+ * </p>
+ *
+ * @param <K> Type of the row keys.
+ */
+final class HashIndexDedupeStore<K> implements DedupeStore<K> {
+
+    // Slot of every key, in insertion order
+    private final FingerprintIndex<K> index;
+
+    // Winning rows by slot
+    private String[][] rows = new String[1024][];
+
+    /**
+     * @param fingerprints Computes the 64-bit fingerprint of a key; equal keys must give equal fingerprints.
+     */
+    HashIndexDedupeStore(ToLongFunction<? super K> fingerprints) {
+        this.index = new FingerprintIndex<>(fingerprints);
+    }
+
+    @Override
+    public void put(K key, String[] row) {
+        // Overwrites duplicates with the same key, the first position is kept
+        int slot = index.add(key);
+        rows = FingerprintIndex.ensureSlot(rows, slot);
+        rows[slot] = row;
+    }
+
+    @Override
+    public void forEachRow(RowSink sink) throws IOException {
+        for (int slot = 0; slot < index.size(); slot++) sink.accept(rows[slot]);
+    }
+
+    @Override
+    public void close() {
+        index.clear();
+        rows = new String[0][];
+    }
+
+    /**
+     * @return The 64-bit fingerprint of a string, computed from its characters (FNV-1a).
+     */
+    static long fingerprint(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
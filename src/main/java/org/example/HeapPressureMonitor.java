@@ -0,0 +1,89 @@
+package org.example;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeapPressureMonitor counts the heap threshold notifications of the JVM.
+ * <p>
+ * A threshold is set on every heap pool that supports one, as a fraction of the pool's maximum size.
+ * The collection usage threshold is preferred: it is checked right after a garbage collection, so it
+ * only fires for memory that is really still in use. Pools without one use the plain usage threshold.
+ * Every notification increments {@link #pressureEvents()}; stores that compare the counter before and
+ * after can tell that the heap filled up in the meantime.
+ * </p>
+ * <p>
+ * Thresholds are a JVM-wide setting, so there is a single monitor and the last configured fraction applies.
+ * </p>
+ */
+final class HeapPressureMonitor {
+
+    private static final HeapPressureMonitor INSTANCE = new HeapPressureMonitor();
+
+    private volatile long pressureEvents;
+    private boolean listening;
+    private double fraction;
+
+    private HeapPressureMonitor() {
+    }
+
+    /**
+     * Returns the monitor, with the thresholds of the heap pools set to {@code fraction} of their maximum.
+     *
+     * @param fraction Share of each pool's maximum size, between 0 and 1 (exclusive).
+     * @return The monitor.
+     */
+    static HeapPressureMonitor withThreshold(double fraction) {
+        INSTANCE.configure(fraction);
+        return INSTANCE;
+    }
+
+    /**
+     * @return The number of threshold notifications received so far.
+     */
+    long pressureEvents() {
+        return pressureEvents;
+    }
+
+    private synchronized void configure(double fraction) {
+        if (!listening) {
+            NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+            NotificationListener listener = (Notification notification, Object handback) -> {
+                String type = notification.getType();
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+                        || MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+                    pressureEvents++;
+                }
+            };
+            emitter.addNotificationListener(listener, null, null);
+            listening = true;
+        }
+        if (fraction == this.fraction) return;
+        this.fraction = fraction;
+
+        for (MemoryPoolMXBean pool : heapPools()) {
+            long max = pool.getUsage().getMax();
+            if (max <= 0) continue; // no fixed maximum
+            long threshold = (long) (max * fraction);
+            if (pool.isCollectionUsageThresholdSupported()) pool.setCollectionUsageThreshold(threshold);
+            else pool.setUsageThreshold(threshold);
+        }
+    }
+
+    // Heap pools that accept a threshold
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid()) continue;
+            if (pool.isCollectionUsageThresholdSupported() || pool.isUsageThresholdSupported()) pools.add(pool);
+        }
+        return pools;
+    }
+}
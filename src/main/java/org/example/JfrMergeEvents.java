@@ -0,0 +1,212 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JfrMergeEvents emits the merge phases as Java Flight Recorder events.
+ * <p>
+ * Only loaded by {@link MergeEvents#INSTANCE} when the {@code jdk.jfr} module is available.
+ * </p>
+ */
+final class JfrMergeEvents extends MergeEvents {
+
+    @Override
+    Object beginUnzip() {
+        UnzipEvent event = new UnzipEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endUnzip(Object handle, String feed, long bytes) {
+        UnzipEvent event = (UnzipEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.feed = feed;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Override
+    Object beginHeader() {
+        HeaderEvent event = new HeaderEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endHeader(Object handle, String table, int feeds, int columns) {
+        HeaderEvent event = (HeaderEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.table = table;
+        event.feeds = feeds;
+        event.columns = columns;
+        event.commit();
+    }
+
+    @Override
+    Object beginParse() {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endParse(Object handle, String table, String feed, long rows, long rowsDropped, long bytes) {
+        ParseEvent event = (ParseEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.table = table;
+        event.feed = feed;
+        event.rows = rows;
+        event.rowsDropped = rowsDropped;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Override
+    Object beginWrite() {
+        WriteEvent event = new WriteEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endWrite(Object handle, String table, long rows, long bytes) {
+        WriteEvent event = (WriteEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.table = table;
+        event.rows = rows;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Override
+    Object beginTable() {
+        TableEvent event = new TableEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endTable(Object handle, TableMetrics table) {
+        TableEvent event = (TableEvent) handle;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.table = table.getFileName();
+        event.feeds = table.getFeeds().size();
+        event.rowsRead = table.getRowsRead();
+        event.rowsWritten = table.getRowsWritten();
+        event.duplicates = table.getDuplicatesOverwritten();
+        event.rowsDropped = table.getRowsDropped();
+        event.bytesIn = table.getBytesIn();
+        event.bytesOut = table.getBytesOut();
+        event.commit();
+    }
+
+    @Name("org.example.gtfs.Unzip")
+    @Label("Unzip Feed")
+    @Description("Extraction of a GTFS ZIP file into a temporary folder")
+    @Category("GTFS Merger")
+    static final class UnzipEvent extends Event {
+        @Label("Feed")
+        String feed;
+
+        @Label("Bytes Extracted")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.example.gtfs.SelectHeader")
+    @Label("Select Header")
+    @Description("Choice of the reference header of a table")
+    @Category("GTFS Merger")
+    static final class HeaderEvent extends Event {
+        @Label("Table")
+        String table;
+
+        @Label("Feeds")
+        int feeds;
+
+        @Label("Columns")
+        int columns;
+    }
+
+    @Name("org.example.gtfs.Parse")
+    @Label("Parse Feed Table")
+    @Description("Reading, aligning and storing the rows of one table of one feed")
+    @Category("GTFS Merger")
+    static final class ParseEvent extends Event {
+        @Label("Table")
+        String table;
+
+        @Label("Feed")
+        String feed;
+
+        @Label("Rows Read")
+        long rows;
+
+        @Label("Rows Dropped")
+        @Description("Rows dropped because their ID was empty")
+        long rowsDropped;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.example.gtfs.Write")
+    @Label("Write Table")
+    @Description("Dedupe resolution and CSV write loop of a merged table")
+    @Category("GTFS Merger")
+    static final class WriteEvent extends Event {
+        @Label("Table")
+        String table;
+
+        @Label("Rows Written")
+        long rows;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.example.gtfs.MergeTable")
+    @Label("Merge Table")
+    @Description("Complete merge of one GTFS table")
+    @Category("GTFS Merger")
+    static final class TableEvent extends Event {
+        @Label("Table")
+        String table;
+
+        @Label("Feeds")
+        int feeds;
+
+        @Label("Rows Read")
+        long rowsRead;
+
+        @Label("Rows Written")
+        long rowsWritten;
+
+        @Label("Duplicates Overwritten")
+        long duplicates;
+
+        @Label("Rows Dropped")
+        long rowsDropped;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesOut;
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFileInputStream reads a file through memory-mapped windows instead of {@code read} system calls.
+ * <p>
+ * The file is mapped with {@link FileChannel#map} one window at a time, so files larger than 2 GB
+ * (the limit of a single mapping) work as well. Reads are bulk copies from the mapped pages, which the
+ * kernel serves straight from the page cache.
+ * </p>
+ * <p>
+ * {@link GtfsCsvReader} does not read through the stream methods: it maps its own windows with
+ * {@link #map(long, long)} and tokenizes the mapped pages in place, so the bytes of a mapped file are
+ * never copied into a heap buffer. The stream methods serve the other readers, such as the quote
+ * counting of {@link ChunkedCsvParser}.
+ * </p>
+ * <p>
+ * Mappings are released by the garbage collector once their window has been read.
+ * </p>
+ */
+final class MappedFileInputStream extends InputStream {
+
+    // Size of each mapped window
+    static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long windowSize;
+
+    // Offset just past the last byte to read: the file size, or the end of a range
+    private long end;
+
+    // Absolute position of the next byte, and the window that contains it (null if not mapped yet)
+    private long position;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * @param file The file to read.
+     * @throws IOException If the file cannot be opened.
+     */
+    MappedFileInputStream(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param file       The file to read.
+     * @param windowSize Number of bytes mapped at a time; at most {@link Integer#MAX_VALUE}.
+     * @throws IOException If the file cannot be opened.
+     */
+    MappedFileInputStream(File file, long windowSize) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.end = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return The absolute offset of the next byte to read.
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * @return The offset just past the last byte to read.
+     */
+    long end() {
+        return end;
+    }
+
+    /**
+     * Stops reading at an absolute offset, so the stream covers a range of the file.
+     *
+     * @param end Offset just past the last byte to read; offsets past the current end are ignored.
+     */
+    void limit(long end) {
+        this.end = Math.min(this.end, end);
+        if (window != null && windowStart + window.limit() > this.end) window = null;
+    }
+
+    /**
+     * Moves to an absolute offset.
+     *
+     * @param position Offset of the next byte to read, at most {@link #end()}.
+     */
+    void seek(long position) {
+        if (position < 0 || position > end) throw new IllegalArgumentException("Invalid position: " + position);
+        this.position = position;
+        window = null;
+    }
+
+    /**
+     * @return The number of bytes mapped at a time.
+     */
+    long windowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Maps a read-only window of the file for a reader that works on the mapped pages directly.
+     * The stream position is not changed.
+     *
+     * @param start  Absolute offset of the first byte.
+     * @param length Number of bytes, at most {@link Integer#MAX_VALUE}.
+     * @return The mapped window, positioned at its first byte.
+     * @throws IOException If the file cannot be mapped.
+     */
+    MappedByteBuffer map(long start, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) return -1;
+        position++;
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureWindow()) return -1;
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, end - position);
+        position += skipped;
+        if (window != null) {
+            long offset = position - windowStart;
+            if (offset < window.limit()) ((Buffer) window).position((int) offset);
+            else window = null;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Maps the window that starts at the current position if the current one is used up.
+     *
+     * @return {@code false} at the end of the file.
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) return true;
+        if (position >= end) return false;
+        windowStart = position;
+        window = map(windowStart, Math.min(windowSize, end - windowStart));
+        return true;
+    }
+}
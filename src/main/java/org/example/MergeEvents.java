@@ -0,0 +1,66 @@
+package org.example;
+
+/**
+ * MergeEvents marks the phases of a merge for Java Flight Recorder.
+ * <p>
+ * Every phase is bracketed by a {@code begin...} call, which returns an opaque event handle, and the
+ * matching {@code end...} call, which fills in the table, feed, row and byte counts and commits the
+ * event. On JVMs without the {@code jdk.jfr} module, {@link #INSTANCE} does nothing and the handles
+ * are {@code null}; the merge code never refers to the JFR classes directly, so they are only loaded
+ * when they exist.
+ * </p>
+ * <p>
+ * The events are cheap when no recording is running. To record them, start the merge with
+ * {@code -XX:StartFlightRecording} (or start a recording in JDK Mission Control) and look for the
+ * "GTFS Merger" category.
+ * </p>
+ */
+class MergeEvents {
+
+    /** The events of this JVM: JFR events if available, no-ops otherwise. */
+    static final MergeEvents INSTANCE = create();
+
+    private static MergeEvents create() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (MergeEvents) Class.forName("org.example.JfrMergeEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new MergeEvents();
+        }
+    }
+
+    Object beginUnzip() {
+        return null;
+    }
+
+    void endUnzip(Object event, String feed, long bytes) {
+    }
+
+    Object beginHeader() {
+        return null;
+    }
+
+    void endHeader(Object event, String table, int feeds, int columns) {
+    }
+
+    Object beginParse() {
+        return null;
+    }
+
+    void endParse(Object event, String table, String feed, long rows, long rowsDropped, long bytes) {
+    }
+
+    Object beginWrite() {
+        return null;
+    }
+
+    void endWrite(Object event, String table, long rows, long bytes) {
+    }
+
+    Object beginTable() {
+        return null;
+    }
+
+    void endTable(Object event, TableMetrics table) {
+    }
+}
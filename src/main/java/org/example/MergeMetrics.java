@@ -0,0 +1,168 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics of one complete merge: every merged table, the merge-wide phases, the total time and
+ * the peak heap usage.
+ * <p>
+ * The metrics of the last merge are available from {@link FullGtfsMerger#getLastMergeMetrics()},
+ * and can be pushed to a metrics backend with {@link FullGtfsMerger#setMetricsListener(MergeMetricsListener)}.
+ * </p>
+ * <p>
+ * The peak heap is the sum of the peak usage of the JVM heap pools during the merge. The peaks of
+ * the pools are reset when a merge starts, so they cover the whole JVM, not just the merge.
+ * </p>
+ */
+public final class MergeMetrics {
+
+    private final long startNanos = System.nanoTime();
+    private final long[] phaseNanos = new long[MergePhase.values().length];
+    private final List<TableMetrics> tables = new ArrayList<>();
+    private long elapsedNanos;
+    private long peakHeapBytes;
+
+    MergeMetrics() {
+        for (MemoryPoolMXBean pool : heapPools()) pool.resetPeakUsage();
+    }
+
+    // ---- Recording ----
+
+    synchronized void addPhase(MergePhase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    // Adds a finished table; may be called from several worker threads
+    synchronized void addTable(TableMetrics table) {
+        tables.add(table);
+    }
+
+    // Records the total time and the peak heap once the merge has completed
+    synchronized void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) peak += pool.getPeakUsage().getUsed();
+        peakHeapBytes = peak;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pools.add(pool);
+        }
+        return pools;
+    }
+
+    // ---- Results ----
+
+    /**
+     * @return The merged tables, in the order they were completed.
+     */
+    public synchronized List<TableMetrics> getTables() {
+        return Collections.unmodifiableList(new ArrayList<>(tables));
+    }
+
+    /**
+     * @param fileName Name of a GTFS file, e.g. "stop_times.txt".
+     * @return The metrics of that table, or {@code null} if no feed contained it.
+     */
+    public synchronized TableMetrics getTable(String fileName) {
+        for (TableMetrics table : tables) {
+            if (table.getFileName().equals(fileName)) return table;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the time spent in a phase. For the per-table phases this is the sum over all tables,
+     * which can exceed the elapsed time when tables are merged concurrently.
+     *
+     * @param phase The phase.
+     * @return Time spent in the phase, in nanoseconds.
+     */
+    public synchronized long getPhaseNanos(MergePhase phase) {
+        long nanos = phaseNanos[phase.ordinal()];
+        for (TableMetrics table : tables) nanos += table.getPhaseNanos(phase);
+        return nanos;
+    }
+
+    /**
+     * @return Wall-clock time of the whole merge, in nanoseconds.
+     */
+    public synchronized long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return Peak heap usage during the merge, in bytes.
+     */
+    public synchronized long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    /**
+     * @return Data rows read from all tables of all feeds.
+     */
+    public synchronized long getRowsRead() {
+        long rows = 0;
+        for (TableMetrics table : tables) rows += table.getRowsRead();
+        return rows;
+    }
+
+    /**
+     * @return Rows written to all merged tables.
+     */
+    public synchronized long getRowsWritten() {
+        long rows = 0;
+        for (TableMetrics table : tables) rows += table.getRowsWritten();
+        return rows;
+    }
+
+    /**
+     * @return Uncompressed bytes read from all tables of all feeds.
+     */
+    public synchronized long getBytesIn() {
+        long bytes = 0;
+        for (TableMetrics table : tables) bytes += table.getBytesIn();
+        return bytes;
+    }
+
+    /**
+     * @return Bytes written to all merged tables (before ZIP compression).
+     */
+    public synchronized long getBytesOut() {
+        long bytes = 0;
+        for (TableMetrics table : tables) bytes += table.getBytesOut();
+        return bytes;
+    }
+
+    /**
+     * @return Rows read per second of wall-clock time.
+     */
+    public double getRowsPerSecond() {
+        return TableMetrics.perSecond(getRowsRead(), getElapsedNanos());
+    }
+
+    /**
+     * @return Bytes read per second of wall-clock time.
+     */
+    public double getBytesPerSecond() {
+        return TableMetrics.perSecond(getBytesIn(), getElapsedNanos());
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Merged %d rows into %d in %d ms (%.0f rows/s, %.1f MB/s), unzip %d ms, scan %d ms, peak heap %d MB",
+                getRowsRead(), getRowsWritten(), TableMetrics.millis(elapsedNanos), getRowsPerSecond(), getBytesPerSecond() / 1e6,
+                TableMetrics.millis(phaseNanos[MergePhase.UNZIP.ordinal()]), TableMetrics.millis(phaseNanos[MergePhase.SCAN.ordinal()]),
+                peakHeapBytes / (1024 * 1024)));
+        for (TableMetrics table : tables) sb.append('\n').append("  ").append(table);
+        return sb.toString();
+    }
+}
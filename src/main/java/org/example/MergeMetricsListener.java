@@ -0,0 +1,27 @@
+package org.example;
+
+/**
+ * Receives the metrics of a merge as it runs, for example to forward them to a metrics backend.
+ * <p>
+ * When tables are merged concurrently ({@link FullGtfsMerger#setParallelism(int)}),
+ * {@link #tableMerged(TableMetrics)} is called from the worker threads and must be thread-safe.
+ * </p>
+ */
+public interface MergeMetricsListener {
+
+    /**
+     * Called when a GTFS table has been merged and written.
+     *
+     * @param table The metrics of the table.
+     */
+    default void tableMerged(TableMetrics table) {
+    }
+
+    /**
+     * Called when the whole merge has completed successfully.
+     *
+     * @param merge The metrics of the merge, including every table.
+     */
+    default void mergeFinished(MergeMetrics merge) {
+    }
+}
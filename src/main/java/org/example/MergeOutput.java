@@ -0,0 +1,29 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * MergeOutput is the destination of the merged GTFS feed.
+ * <p>
+ * The merged files are written either as loose .txt files into a folder ({@link DirectoryOutput})
+ * or as entries of a single GTFS ZIP file ({@link ZipOutput}).
+ * </p>
+ */
+interface MergeOutput extends Closeable {
+
+    /**
+     * Opens a merged GTFS file for writing.
+     * <p>
+     * The returned stream must be closed before the output itself is closed. It is safe to call
+     * this method from several threads; implementations that can only write one file at a time
+     * block until the previous file is closed.
+     * </p>
+     *
+     * @param fileName Name of the GTFS file (e.g., "stops.txt").
+     * @return A stream for the raw bytes of the file.
+     * @throws IOException If the file cannot be created.
+     */
+    OutputStream openFile(String fileName) throws IOException;
+}
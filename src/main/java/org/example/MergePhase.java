@@ -0,0 +1,28 @@
+package org.example;
+
+/**
+ * The phases of a merge that {@link MergeMetrics} measures.
+ */
+public enum MergePhase {
+
+    /**
+     * Extraction of ZIP files into temporary folders (only with {@link FullGtfsMerger#setExtractZips(boolean)}).
+     * Summed over the extraction tasks, which run concurrently with each other and with the merge.
+     */
+    UNZIP,
+
+    /** Listing the files of every feed and reading their headers. */
+    SCAN,
+
+    /** Choosing the reference header of a table. */
+    HEADER,
+
+    /** Reading, aligning and storing the rows of a table; includes adding them to the dedupe store. */
+    PARSE,
+
+    /** Resolving duplicates once all rows are read, up to the first merged row (e.g., merging sorted runs). */
+    DEDUPE,
+
+    /** Writing the merged rows of a table. */
+    WRITE
+}
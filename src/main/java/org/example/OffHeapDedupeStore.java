@@ -0,0 +1,52 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.function.ToLongFunction;
+
+/**
+ * OffHeapDedupeStore keeps the merged rows in an {@link OffHeapRowArena} instead of on the heap.
+ * <p>
+ * The heap only holds the key and a pointer to the encoded row: keys are numbered by a
+ * {@link FingerprintIndex}, and the pointers are kept in a {@code long} array by slot, so a row
+ * costs no entry object and no boxed pointer. Large tables therefore put far less pressure on the
+ * garbage collector. When a key is overwritten, the new row is appended and the pointer is updated;
+ * the space of the old row is only reclaimed when the store is closed.
+ * </p>
+ */
+class OffHeapDedupeStore<K> implements DedupeStore<K> {
+
+    private final OffHeapRowArena arena = new OffHeapRowArena();
+
+    // Slot of every key, in insertion order
+    private final FingerprintIndex<K> index;
+
+    // Pointer into the arena by slot
+    private long[] pointers = new long[1024];
+
+    /**
+     * @param fingerprints Computes the 64-bit fingerprint of a key; equal keys must give equal fingerprints.
+     */
+    OffHeapDedupeStore(ToLongFunction<? super K> fingerprints) {
+        this.index = new FingerprintIndex<>(fingerprints);
+    }
+
+    @Override
+    public void put(K key, String[] row) {
+        // Overwrites duplicates with the same key, the first position is kept
+        int slot = index.add(key);
+        pointers = FingerprintIndex.ensureSlot(pointers, slot);
+        pointers[slot] = arena.append(row);
+    }
+
+    @Override
+    public void forEachRow(RowSink sink) throws IOException {
+        for (int slot = 0; slot < index.size(); slot++) sink.accept(arena.read(pointers[slot]));
+    }
+
+    @Override
+    public void close() {
+        index.clear();
+        pointers = new long[0];
+        arena.clear();
+    }
+}
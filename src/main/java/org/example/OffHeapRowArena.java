@@ -0,0 +1,143 @@
+package org.example;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OffHeapRowArena stores encoded rows outside the Java heap, in direct {@link ByteBuffer} chunks.
+ * <p>
+ * A row is appended once and addressed by a {@code long} pointer (chunk index in the high 32 bits,
+ * offset in the low 32 bits). Each row is stored as its field count followed by the length and
+ * UTF-8 bytes of every field; a {@code null} field is stored as the length -1. Rows are never moved or freed individually; all chunks are released
+ * together by {@link #clear()}.
+ * </p>
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize} (by default the same as the maximum heap).
+ * </p>
+ */
+final class OffHeapRowArena {
+
+    private static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final int FIRST_CHUNK_SIZE = 1024 * 1024;
+
+    // Length stored for a null field (an unset column of the aligned row)
+    private static final int NULL_FIELD = -1;
+
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    // Write position in the last chunk
+    private int writeOffset;
+
+    // Reusable buffer for encoding and decoding fields
+    private byte[] scratch = new byte[256];
+
+    OffHeapRowArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize Maximum size in bytes of each direct buffer.
+     */
+    OffHeapRowArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Encodes a row into the arena.
+     *
+     * @param row The row to store.
+     * @return Pointer to the stored row.
+     */
+    long append(String[] row) {
+        // Encode all fields first so the exact size is known
+        byte[][] encoded = new byte[row.length][];
+        int size = 4;
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null) {
+                size += 4; // length only
+                continue;
+            }
+            encoded[i] = row[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + encoded[i].length;
+        }
+
+        ByteBuffer chunk = chunkFor(size);
+        int offset = writeOffset;
+        ByteBuffer out = chunk.duplicate();
+        ((Buffer) out).position(offset);
+        out.putInt(row.length);
+        for (byte[] field : encoded) {
+            if (field == null) {
+                out.putInt(NULL_FIELD);
+                continue;
+            }
+            out.putInt(field.length);
+            out.put(field);
+        }
+        writeOffset += size;
+        return ((long) (chunks.size() - 1) << 32) | offset;
+    }
+
+    /**
+     * Decodes the row stored at {@code pointer}.
+     *
+     * @param pointer A pointer returned by {@link #append(String[])}.
+     * @return A new array with the fields of the row.
+     */
+    String[] read(long pointer) {
+        ByteBuffer in = chunks.get((int) (pointer >>> 32)).duplicate();
+        ((Buffer) in).position((int) pointer);
+        String[] row = new String[in.getInt()];
+        for (int i = 0; i < row.length; i++) {
+            int len = in.getInt();
+            if (len == NULL_FIELD) continue; // the cell stays null
+            if (len == 0) {
+                row[i] = "";
+                continue;
+            }
+            if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+            in.get(scratch, 0, len);
+            row[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+        return row;
+    }
+
+    /**
+     * @return Number of off-heap bytes allocated so far.
+     */
+    long allocatedBytes() {
+        long total = 0;
+        for (ByteBuffer chunk : chunks) total += chunk.capacity();
+        return total;
+    }
+
+    /**
+     * Drops all chunks; their memory is returned when the buffers are garbage collected.
+     */
+    void clear() {
+        chunks.clear();
+        writeOffset = 0;
+        scratch = new byte[256];
+    }
+
+    /**
+     * Returns the chunk that receives the next {@code size} bytes, allocating a new one if needed.
+     */
+    private ByteBuffer chunkFor(int size) {
+        if (!chunks.isEmpty()) {
+            ByteBuffer last = chunks.get(chunks.size() - 1);
+            if (last.capacity() - writeOffset >= size) return last;
+        }
+        // Chunks start small and double up to chunkSize, so small tables stay small;
+        // rows bigger than a chunk get a chunk of their own
+        int next = chunks.isEmpty() ? FIRST_CHUNK_SIZE : chunks.get(chunks.size() - 1).capacity() * 2;
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(Math.min(next, chunkSize), size));
+        chunks.add(chunk);
+        writeOffset = 0;
+        return chunk;
+    }
+}
@@ -0,0 +1,542 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ProvenanceIndex records which feeds contributed each key of a merged feed, so that one changed
+ * feed can later be applied to the merged output without re-reading the others
+ * ({@link FullGtfsMerger#mergeFeedDelta(String, String)}).
+ * <p>
+ * For every table the index keeps the reference header, the header of every feed, and for every
+ * merged key the feeds that contain it together with the row number of the key's first occurrence
+ * in each of them. This is enough to resolve precedence again: the last feed containing a key wins,
+ * and the key is placed at its first occurrence, ordered by feed and then by row. The keys are stored
+ * in output order, so the n-th key belongs to the n-th row of the merged file.
+ * </p>
+ * <p>
+ * The index is stored gzip-compressed next to the output folder, as {@code <outputFolder>.provenance}.
+ * </p>
+ */
+final class ProvenanceIndex {
+
+    private static final String FILE_SUFFIX = ".provenance";
+    private static final long MAGIC = 0x4754465350524F56L; // "GTFSPROV"
+    private static final int VERSION = 2;
+
+    // An entry packs the feed ordinal (high bits) and the row number within the feed (low bits)
+    private static final int ROW_BITS = 40;
+
+    private final String headerChoice;
+    private final List<String> feedNames;
+    private final List<File> feedSources;
+
+    // GTFS file name → table; sorted so the index file is written in a stable order
+    private final Map<String, Table> tables = new TreeMap<>();
+
+    // Feeds opened for the current merge → their ordinal
+    private final Map<GtfsFeed, Integer> openFeeds = new IdentityHashMap<>();
+
+    private ProvenanceIndex(String headerChoice, List<String> feedNames, List<File> feedSources) {
+        this.headerChoice = headerChoice;
+        this.feedNames = feedNames;
+        this.feedSources = feedSources;
+    }
+
+    /**
+     * Creates an empty index for a full merge of the given feeds.
+     *
+     * @param headerChoice "long" or "short", as used by the merge.
+     * @param feeds        The feeds in merge order.
+     * @param sources      The folder, ZIP or tar file of each feed, in the same order.
+     * @return The index; the merge methods fill in the tables.
+     */
+    static ProvenanceIndex create(String headerChoice, List<GtfsFeed> feeds, List<File> sources) {
+        List<String> names = new ArrayList<>();
+        List<File> paths = new ArrayList<>();
+        for (File source : sources) {
+            names.add(source.getName());
+            paths.add(source.getAbsoluteFile());
+        }
+        ProvenanceIndex index = new ProvenanceIndex(headerChoice, names, paths);
+        for (int i = 0; i < feeds.size(); i++) index.bind(feeds.get(i), i);
+        return index;
+    }
+
+    /**
+     * @param outputFolder The merged output folder.
+     * @return The index file that belongs to the output folder.
+     */
+    static File fileFor(File outputFolder) {
+        File absolute = outputFolder.getAbsoluteFile();
+        return new File(absolute.getParentFile(), absolute.getName() + FILE_SUFFIX);
+    }
+
+    String getHeaderChoice() {
+        return headerChoice;
+    }
+
+    int feedCount() {
+        return feedNames.size();
+    }
+
+    /**
+     * @param name The name of a feed folder, ZIP or tar file.
+     * @return The ordinal of the feed, or -1 if it was not part of the merge.
+     */
+    int feedOrdinal(String name) {
+        return feedNames.indexOf(name);
+    }
+
+    String feedName(int ordinal) {
+        return feedNames.get(ordinal);
+    }
+
+    File feedSource(int ordinal) {
+        return feedSources.get(ordinal);
+    }
+
+    /**
+     * Records that a feed has been replaced by the version at {@code source}.
+     */
+    void setFeedSource(int ordinal, File source) {
+        feedSources.set(ordinal, source.getAbsoluteFile());
+    }
+
+    /**
+     * Associates an opened feed with its ordinal, so the merge methods can record its rows.
+     */
+    synchronized void bind(GtfsFeed feed, int ordinal) {
+        openFeeds.put(feed, ordinal);
+    }
+
+    synchronized int ordinalOf(GtfsFeed feed) {
+        Integer ordinal = openFeeds.get(feed);
+        if (ordinal == null) throw new IllegalStateException("Feed is not part of the index: " + feed.getName());
+        return ordinal;
+    }
+
+    /**
+     * @param fileName Name of a GTFS file, e.g. "stops.txt".
+     * @return The table, or {@code null} if no feed contained it.
+     */
+    synchronized Table table(String fileName) {
+        return tables.get(fileName);
+    }
+
+    /**
+     * Adds or replaces the index of a table; called by the merge threads when a table is complete.
+     */
+    synchronized void putTable(Table table) {
+        tables.put(table.fileName, table);
+    }
+
+    /**
+     * Creates the index of a table that is about to be merged; add it with {@link #putTable(Table)} when it is complete.
+     */
+    Table newTable(String fileName, String[] idFields) {
+        return new Table(this, fileName, idFields);
+    }
+
+    synchronized void removeTable(String fileName) {
+        tables.remove(fileName);
+    }
+
+    static long entry(int feed, long row) {
+        return ((long) feed << ROW_BITS) | row;
+    }
+
+    static int feedOf(long entry) {
+        return (int) (entry >>> ROW_BITS);
+    }
+
+    /**
+     * The index of one merged table.
+     * <p>
+     * The keys are the ones the merge stores use: the ID value for a single-column ID and a
+     * {@link CompositeKey} otherwise, so stop_times.txt and shapes.txt keep one packed {@code long} per
+     * row. A row without an ID is its own key and only its entry is stored. The keys sit behind an
+     * open-addressing hash index of fingerprints, probed linearly like the {@link HashIndexDedupeStore},
+     * and the entries are kept in primitive arrays by slot, in output order.
+     * </p>
+     */
+    static final class Table {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final ProvenanceIndex owner;
+        final String fileName;
+        final String[] idFields;
+
+        // Reference header of the merged file and the header of every feed that contains the file
+        String[] refHeader;
+        final SortedMap<Integer, String[]> headers = new TreeMap<>();
+
+        // Indexes of the ID columns in the reference header; null if the rows have no key
+        private int[] idIndexes;
+
+        // Builds the keys of tables with a composite ID
+        private CompositeKeyFactory keyFactory;
+
+        // Feed whose rows are being recorded
+        private int currentFeed = -1;
+
+        // Hash index: fingerprint and slot of every occupied position; slot -1 marks a free position
+        private long[] tableFingerprints;
+        private int[] tableSlots;
+        private int mask;
+        private int resizeAt;
+
+        // By slot, in output order: the key (null for rows without ID), the entry of the first feed that
+        // contains the key, and the entries of the later feeds sorted by feed (null if there are none)
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+        private long[] firstEntries = new long[INITIAL_CAPACITY];
+        private long[][] laterEntries = new long[INITIAL_CAPACITY][];
+        private int size;
+
+        /**
+         * @param owner    The index the table belongs to.
+         * @param fileName Name of the GTFS file.
+         * @param idFields ID columns of the file; {@code null} or empty if the rows have no ID.
+         */
+        private Table(ProvenanceIndex owner, String fileName, String[] idFields) {
+            this.owner = owner;
+            this.fileName = fileName;
+            this.idFields = (idFields == null) ? new String[0] : idFields;
+            allocateTable(INITIAL_CAPACITY * 2);
+        }
+
+        /**
+         * Sets the reference header and derives the key columns from it, following the same rules
+         * as the merge methods: a single ID column that is missing from the header means the rows
+         * have no key, while missing columns of a composite ID count as empty values.
+         */
+        void setReferenceHeader(String[] refHeader) {
+            this.refHeader = refHeader;
+            // lastIndexOf: the merge methods map a repeated column name to its last position
+            List<String> columns = Arrays.asList(refHeader);
+            if (idFields.length == 0 || (idFields.length == 1 && !columns.contains(idFields[0]))) {
+                idIndexes = null;
+                return;
+            }
+            idIndexes = new int[idFields.length];
+            for (int i = 0; i < idFields.length; i++) idIndexes[i] = columns.lastIndexOf(idFields[i]);
+            if (idIndexes.length > 1) keyFactory = new CompositeKeyFactory(idIndexes);
+        }
+
+        /**
+         * Creates an empty table with the same reference header and key dictionary, so that its keys
+         * compare equal to the keys of this table. Used for the next version of a table.
+         */
+        Table emptyCopy() {
+            Table copy = new Table(owner, fileName, idFields);
+            copy.refHeader = refHeader;
+            copy.idIndexes = idIndexes;
+            copy.keyFactory = keyFactory;
+            return copy;
+        }
+
+        /**
+         * @return The reference columns that {@link #keyOf} reads, for decoding only the ID columns of a row.
+         */
+        int[] keyColumns() {
+            return (idIndexes == null) ? new int[0] : Arrays.stream(idIndexes).filter(i -> i != -1).toArray();
+        }
+
+        /**
+         * Starts recording the rows of a feed during a full merge.
+         */
+        void startFeed(GtfsFeed feed, String[] header) {
+            currentFeed = owner.ordinalOf(feed);
+            headers.put(currentFeed, header);
+        }
+
+        /**
+         * Records a row of the current feed during a full merge.
+         *
+         * @param row        Row number within the feed file (0 for the first data row).
+         * @param alignedRow The row aligned with the reference header; only the ID columns are read.
+         */
+        void add(long row, String[] alignedRow) {
+            Object key = keyOf(alignedRow, currentFeed, row);
+            if (key != null) addKey(row, key);
+        }
+
+        /**
+         * Records the key of a row of the current feed.
+         *
+         * @param row Row number within the feed file.
+         * @param key The key of the row, as returned by {@link #keyOf}.
+         */
+        void addKey(long row, Object key) {
+            int slot = slotOf(key);
+            if (slot < 0) {
+                append(key, new long[]{entry(currentFeed, row)});
+            } else if (lastFeed(slot) != currentFeed) {
+                // Feeds are read in order, so the new feed goes last; repeats within a feed keep the first row
+                long[] later = laterEntries[slot];
+                later = (later == null) ? new long[1] : Arrays.copyOf(later, later.length + 1);
+                later[later.length - 1] = entry(currentFeed, row);
+                laterEntries[slot] = later;
+            }
+        }
+
+        /**
+         * Returns the key of a row as stored in the index.
+         *
+         * @param alignedRow The row aligned with the reference header; only the ID columns are read.
+         * @param feed       The feed the row comes from.
+         * @param row        The row number within the feed file.
+         * @return The ID value, a {@link CompositeKey}, the entry of the row as a {@code Long} if the rows
+         *         have no ID, or {@code null} if the merge drops the row (empty single-column ID).
+         */
+        Object keyOf(String[] alignedRow, int feed, long row) {
+            // Rows without an ID are never duplicates of each other
+            if (idIndexes == null) return entry(feed, row);
+
+            if (keyFactory == null) {
+                String id = alignedRow[idIndexes[0]];
+                return id.isEmpty() ? null : id;
+            }
+            return keyFactory.keyFor(alignedRow);
+        }
+
+        /**
+         * @return The number of keys, which is the number of rows of the merged file.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param key A key returned by {@link #keyOf}.
+         * @return The slot of the key, which is its row in the merged file, or -1 if the table doesn't contain it.
+         */
+        int slotOf(Object key) {
+            long fingerprint = fingerprint(key);
+            int pos = position(fingerprint);
+            while (true) {
+                int slot = tableSlots[pos];
+                if (slot < 0) return -1;
+                if (tableFingerprints[pos] == fingerprint && keyAt(slot).equals(key)) return slot;
+                pos = (pos + 1) & mask;
+            }
+        }
+
+        /**
+         * @return The key of a slot, as returned by {@link #keyOf}.
+         */
+        Object keyAt(int slot) {
+            Object key = keys[slot];
+            return (key != null) ? key : (Object) firstEntries[slot];
+        }
+
+        /**
+         * @return The entries of a slot, sorted by feed ordinal.
+         */
+        long[] entries(int slot) {
+            long[] later = laterEntries[slot];
+            if (later == null) return new long[]{firstEntries[slot]};
+            long[] entries = new long[later.length + 1];
+            entries[0] = firstEntries[slot];
+            System.arraycopy(later, 0, entries, 1, later.length);
+            return entries;
+        }
+
+        /**
+         * @return The feed whose row of the key is in the merged file: the last feed containing it.
+         */
+        int lastFeed(int slot) {
+            long[] later = laterEntries[slot];
+            return feedOf(later == null ? firstEntries[slot] : later[later.length - 1]);
+        }
+
+        /**
+         * Adds a key behind the last slot.
+         *
+         * @param key     A key returned by {@link #keyOf}; must not be in the table yet.
+         * @param entries The entries of the key, sorted by feed ordinal; at least one.
+         */
+        void append(Object key, long[] entries) {
+            if (size == firstEntries.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                firstEntries = Arrays.copyOf(firstEntries, capacity);
+                laterEntries = Arrays.copyOf(laterEntries, capacity);
+            }
+            int slot = size++;
+            keys[slot] = (key instanceof Long) ? null : key;
+            firstEntries[slot] = entries[0];
+            laterEntries[slot] = (entries.length == 1) ? null : Arrays.copyOfRange(entries, 1, entries.length);
+
+            long fingerprint = fingerprint(key);
+            int pos = position(fingerprint);
+            while (tableSlots[pos] >= 0) pos = (pos + 1) & mask;
+            tableFingerprints[pos] = fingerprint;
+            tableSlots[pos] = slot;
+            if (size > resizeAt) rehash();
+        }
+
+        /**
+         * @return The 64-bit fingerprint of a key returned by {@link #keyOf}.
+         */
+        static long fingerprint(Object key) {
+            if (key instanceof String) return HashIndexDedupeStore.fingerprint((String) key);
+            if (key instanceof CompositeKey) return ((CompositeKey) key).fingerprint();
+            return (Long) key;
+        }
+
+        // First table position to probe; the fingerprint bits are mixed so that sequential keys spread out
+        private int position(long fingerprint) {
+            long h = fingerprint;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return (int) h & mask;
+        }
+
+        private void allocateTable(int capacity) {
+            tableFingerprints = new long[capacity];
+            tableSlots = new int[capacity];
+            Arrays.fill(tableSlots, -1);
+            mask = capacity - 1;
+            resizeAt = capacity / 3 * 2; // load factor 2/3
+        }
+
+        // Doubles the hash index; the keys keep their slots
+        private void rehash() {
+            long[] oldFingerprints = tableFingerprints;
+            int[] oldSlots = tableSlots;
+            allocateTable(oldSlots.length * 2);
+            for (int i = 0; i < oldSlots.length; i++) {
+                int slot = oldSlots[i];
+                if (slot < 0) continue;
+                int pos = position(oldFingerprints[i]);
+                while (tableSlots[pos] >= 0) pos = (pos + 1) & mask;
+                tableFingerprints[pos] = oldFingerprints[i];
+                tableSlots[pos] = slot;
+            }
+        }
+    }
+
+    // ---- Persistence ----
+
+    /**
+     * Writes the index to {@code file}, replacing it atomically where the file system allows.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    synchronized void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, headerChoice);
+            out.writeInt(feedNames.size());
+            for (int i = 0; i < feedNames.size(); i++) {
+                writeString(out, feedNames.get(i));
+                writeString(out, feedSources.get(i).getPath());
+            }
+            out.writeInt(tables.size());
+            for (Table table : tables.values()) {
+                writeString(out, table.fileName);
+                writeStrings(out, table.idFields);
+                writeStrings(out, table.refHeader);
+                out.writeInt(table.headers.size());
+                for (Map.Entry<Integer, String[]> e : table.headers.entrySet()) {
+                    out.writeInt(e.getKey());
+                    writeStrings(out, e.getValue());
+                }
+                if (table.keyFactory != null) writeStrings(out, table.keyFactory.dictionary());
+                out.writeInt(table.size());
+                for (int slot = 0; slot < table.size(); slot++) {
+                    Object key = table.keys[slot];
+                    if (key instanceof String) writeString(out, (String) key);
+                    else if (key instanceof CompositeKey) writeBytes(out, ((CompositeKey) key).toBytes());
+                    long[] entries = table.entries(slot);
+                    out.writeInt(entries.length);
+                    for (long entry : entries) out.writeLong(entry);
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) throw new IOException("Cannot replace provenance index: " + file);
+        if (!temp.renameTo(file)) throw new IOException("Cannot write provenance index: " + file);
+    }
+
+    /**
+     * Reads an index written by {@link #write(File)}.
+     *
+     * @throws IOException If the file cannot be read or is not a provenance index.
+     */
+    static ProvenanceIndex read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a supported provenance index: " + file);
+            }
+            String headerChoice = readString(in);
+            int feedCount = in.readInt();
+            List<String> names = new ArrayList<>();
+            List<File> sources = new ArrayList<>();
+            for (int i = 0; i < feedCount; i++) {
+                names.add(readString(in));
+                sources.add(new File(readString(in)));
+            }
+            ProvenanceIndex index = new ProvenanceIndex(headerChoice, names, sources);
+
+            int tableCount = in.readInt();
+            for (int t = 0; t < tableCount; t++) {
+                Table table = index.newTable(readString(in), readStrings(in));
+                table.setReferenceHeader(readStrings(in));
+                int headerCount = in.readInt();
+                for (int i = 0; i < headerCount; i++) table.headers.put(in.readInt(), readStrings(in));
+                if (table.keyFactory != null) table.keyFactory.restoreDictionary(readStrings(in));
+                int keyCount = in.readInt();
+                for (int i = 0; i < keyCount; i++) {
+                    Object key;
+                    if (table.idIndexes == null) key = null;
+                    else if (table.keyFactory == null) key = readString(in);
+                    else key = CompositeKey.fromBytes(readBytes(in));
+                    long[] entries = new long[in.readInt()];
+                    for (int j = 0; j < entries.length; j++) entries[j] = in.readLong();
+                    table.append(key == null ? (Object) entries[0] : key, entries);
+                }
+                index.tables.put(table.fileName, table);
+            }
+            return index;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String v : values) writeString(out, v);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) values[i] = readString(in);
+        return values;
+    }
+}
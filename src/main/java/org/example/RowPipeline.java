@@ -0,0 +1,215 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RowPipeline connects two stages of a table merge that run on different threads.
+ * <p>
+ * The producing stage hands rows to a {@link DedupeStore.RowSink}; the rows are collected into
+ * batches that travel through a bounded ring buffer ({@link ArrayBlockingQueue}) to the consuming
+ * stage. When the consumer falls behind, the buffer fills up and the producer waits, so a slow stage
+ * holds back the other one instead of letting rows pile up in memory. A failure in either stage
+ * stops both and is rethrown on the calling thread.
+ * </p>
+ * <p>
+ * Batches may contain {@code null} rows; the merge methods use them for dropped records, so the
+ * consumer can still count every record.
+ * </p>
+ */
+final class RowPipeline {
+
+    // Rows per batch and batches in the ring buffer
+    static final int BATCH_SIZE = 1024;
+    static final int CAPACITY = 16;
+
+    // How long a blocked stage waits before it checks whether the other stage gave up
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * The producing stage.
+     */
+    interface Producer {
+        void produce(DedupeStore.RowSink sink) throws IOException;
+    }
+
+    /**
+     * The consuming stage; receives {@code rows[0, count)} of every batch in order.
+     */
+    interface Consumer {
+        void accept(String[][] rows, int count) throws IOException;
+    }
+
+    private static final class Batch {
+        final String[][] rows;
+        int count;
+
+        // Set on the last batch of the stream, together with the producer's failure (if any)
+        boolean last;
+        Throwable failure;
+
+        Batch(int size) {
+            rows = new String[size][];
+        }
+    }
+
+    private final ArrayBlockingQueue<Batch> ring = new ArrayBlockingQueue<>(CAPACITY);
+
+    // Set when the consumer stops early, so the producer does not wait for space forever
+    private volatile boolean abandoned;
+
+    private RowPipeline() {
+    }
+
+    /**
+     * Runs the producer on a new thread and the consumer on the calling thread.
+     *
+     * @param threadName Name of the producer thread.
+     * @param producer   The producing stage.
+     * @param consumer   The consuming stage.
+     * @throws IOException If either stage fails.
+     */
+    static void produceInBackground(String threadName, Producer producer, Consumer consumer) throws IOException {
+        RowPipeline pipeline = new RowPipeline();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            pipeline.produce(producer);
+            return null;
+        });
+        Thread thread = new Thread(task, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            pipeline.consume(consumer);
+        } catch (IOException | RuntimeException | Error e) {
+            // Stop the producer; its own error would only be a consequence of this one
+            pipeline.abandoned = true;
+            try {
+                await(task);
+            } catch (IOException | RuntimeException | Error ignored) {
+                // reported below
+            }
+            throw e;
+        }
+        await(task);
+    }
+
+    /**
+     * Runs the producer on the calling thread and the consumer on a new thread.
+     *
+     * @param threadName Name of the consumer thread.
+     * @param producer   The producing stage.
+     * @param consumer   The consuming stage.
+     * @throws IOException If either stage fails.
+     */
+    static void consumeInBackground(String threadName, Producer producer, Consumer consumer) throws IOException {
+        RowPipeline pipeline = new RowPipeline();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                pipeline.consume(consumer);
+            } finally {
+                pipeline.abandoned = true;
+            }
+            return null;
+        });
+        Thread thread = new Thread(task, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            pipeline.produce(producer);
+        } catch (IOException | RuntimeException | Error e) {
+            // A consumer failure is the cause of a producer that stopped early, so it is reported first
+            await(task);
+            throw e;
+        }
+        await(task);
+    }
+
+    /**
+     * Runs the producer and sends its rows in batches, followed by the last batch.
+     */
+    private void produce(Producer producer) throws IOException {
+        Batch[] current = { new Batch(BATCH_SIZE) };
+        Throwable failure = null;
+        try {
+            producer.produce(row -> {
+                Batch batch = current[0];
+                batch.rows[batch.count++] = row;
+                if (batch.count == BATCH_SIZE) {
+                    send(batch);
+                    current[0] = new Batch(BATCH_SIZE);
+                }
+            });
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            Batch last = current[0];
+            last.last = true;
+            last.failure = failure;
+            if (!abandoned) send(last);
+        }
+    }
+
+    /**
+     * Receives batches until the last one and passes them to the consumer.
+     */
+    private void consume(Consumer consumer) throws IOException {
+        while (true) {
+            Batch batch;
+            try {
+                batch = ring.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Merge pipeline was interrupted");
+            }
+            if (batch.last && batch.failure != null) return; // the producer reports its own failure
+            consumer.accept(batch.rows, batch.count);
+            if (batch.last) return;
+        }
+    }
+
+    /**
+     * Puts a batch into the ring buffer, waiting while it is full.
+     *
+     * @throws IOException If the consumer gave up or the thread was interrupted.
+     */
+    private void send(Batch batch) throws IOException {
+        try {
+            while (!ring.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (abandoned) throw new IOException("Merge pipeline stopped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Merge pipeline was interrupted");
+        }
+    }
+
+    /**
+     * Waits for the background stage and rethrows its failure.
+     */
+    private static void await(FutureTask<Void> task) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the stage ends on its own once the other side stopped
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
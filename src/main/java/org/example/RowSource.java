@@ -0,0 +1,18 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * RowSource is anything that can replay the merged rows of a table in output order:
+ * a {@link DedupeStore}, or the index of winning records of a {@link TwoPassMerge}.
+ */
+interface RowSource {
+
+    /**
+     * Passes every merged row to {@code sink}, in output order.
+     *
+     * @param sink Receiver of the merged rows.
+     * @throws IOException If the rows cannot be read or the sink fails.
+     */
+    void forEachRow(DedupeStore.RowSink sink) throws IOException;
+}
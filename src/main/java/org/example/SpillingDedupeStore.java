@@ -0,0 +1,101 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * SpillingDedupeStore keeps rows on the heap like {@link HashIndexDedupeStore} until the heap fills up,
+ * then moves them to an {@link ExternalSortDedupeStore} and continues on disk.
+ * <p>
+ * Heap pressure is signalled by the {@link HeapPressureMonitor}. The first put after a threshold
+ * notification hands every row collected so far to the external sort, in first-seen order, and
+ * releases the index; all later rows go straight to the external sort. Until then the rows are held
+ * exactly as the default store holds them, in an array by the slot of a {@link FingerprintIndex},
+ * so the heap threshold is reached at the same table size as without spilling. Because the rows are handed
+ * over in their original order, the merged output is the same as without spilling. A merge that
+ * would otherwise run out of memory gets slower instead of failing.
+ * </p>
+ */
+class SpillingDedupeStore<K> implements DedupeStore<K> {
+
+    private final HeapPressureMonitor monitor;
+    private final long spillMemory;
+    private final Function<? super K, byte[]> keyEncoder;
+
+    // Pressure notifications seen when the store was created
+    private final long pressureAtStart;
+
+    // Slot of every key and winning row by slot; null once the rows have been spilled
+    private FingerprintIndex<K> index;
+    private String[][] rows = new String[1024][];
+    private ExternalSortDedupeStore<K> spilled;
+
+    /**
+     * @param monitor      Source of the heap pressure notifications.
+     * @param spillMemory  Heap budget of the external sort after spilling.
+     * @param keyEncoder   Encodes keys into bytes for the external sort.
+     * @param fingerprints Computes the 64-bit fingerprint of a key for the in-memory index.
+     */
+    SpillingDedupeStore(HeapPressureMonitor monitor, long spillMemory, Function<? super K, byte[]> keyEncoder,
+                        ToLongFunction<? super K> fingerprints) {
+        this.monitor = monitor;
+        this.spillMemory = spillMemory;
+        this.keyEncoder = keyEncoder;
+        this.index = new FingerprintIndex<>(fingerprints);
+        this.pressureAtStart = monitor.pressureEvents();
+    }
+
+    @Override
+    public void put(K key, String[] row) throws IOException {
+        if (spilled != null) {
+            spilled.put(key, row);
+            return;
+        }
+        // Overwrites duplicates with the same key, the first position is kept
+        int slot = index.add(key);
+        rows = FingerprintIndex.ensureSlot(rows, slot);
+        rows[slot] = row;
+        if (monitor.pressureEvents() != pressureAtStart) spill();
+    }
+
+    @Override
+    public void forEachRow(RowSink sink) throws IOException {
+        if (spilled != null) spilled.forEachRow(sink);
+        else for (int slot = 0; slot < index.size(); slot++) sink.accept(rows[slot]);
+    }
+
+    /**
+     * @return {@code true} if the rows have been moved to disk.
+     */
+    boolean isSpilled() {
+        return spilled != null;
+    }
+
+    /**
+     * Moves every row to the external sort, in first-seen order, and drops the index.
+     */
+    void spill() throws IOException {
+        spilled = new ExternalSortDedupeStore<>(spillMemory, keyEncoder);
+        FingerprintIndex<K> keys = index;
+        String[][] spilledRows = rows;
+        index = null;
+        rows = null;
+
+        // Release the rows while handing them over, so the heap is freed as the runs are written
+        for (int slot = 0; slot < keys.size(); slot++) {
+            spilled.put(keys.keyAt(slot), spilledRows[slot]);
+            spilledRows[slot] = null;
+        }
+        keys.clear();
+    }
+
+    @Override
+    public void close() {
+        if (spilled != null) spilled.close();
+        else {
+            index.clear();
+            rows = null;
+        }
+    }
+}
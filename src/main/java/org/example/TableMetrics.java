@@ -0,0 +1,216 @@
+package org.example;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics of one merged GTFS table (e.g., "stop_times.txt"): rows and bytes in and out, duplicates,
+ * and the time spent in each phase.
+ * <p>
+ * A table is merged by a single thread, so the recording methods are not synchronized. Once the
+ * table is done, the instance is handed to {@link MergeMetrics} and no longer changes.
+ * </p>
+ * <p>
+ * The parse and write phases recorded here are also emitted as Flight Recorder events ({@link MergeEvents}).
+ * </p>
+ */
+public final class TableMetrics {
+
+    private final String fileName;
+    private final List<FeedMetrics> feeds = new ArrayList<>();
+    private final long[] phaseNanos = new long[MergePhase.values().length];
+    private long rowsWritten;
+    private long bytesOut;
+
+    // Start of the dedupe phase and of the write phase (0 until the first merged row)
+    private long dedupeStart;
+    private long writeStart;
+
+    // Flight Recorder event of the dedupe and write phases
+    private Object writeEvent;
+
+    TableMetrics(String fileName) {
+        this.fileName = fileName;
+    }
+
+    // ---- Recording (merge thread only) ----
+
+    // Adds a feed whose file is about to be read
+    FeedMetrics startFeed(String feedName) {
+        FeedMetrics feed = new FeedMetrics(feedName);
+        feeds.add(feed);
+        feed.parseEvent = MergeEvents.INSTANCE.beginParse();
+        return feed;
+    }
+
+    // Records the totals of a feed once its file has been read
+    void finishFeed(FeedMetrics feed, long rowsRead, long rowsDropped, long bytesIn, long parseNanos) {
+        feed.finish(rowsRead, rowsDropped, bytesIn, parseNanos);
+        addPhase(MergePhase.PARSE, parseNanos);
+        MergeEvents.INSTANCE.endParse(feed.parseEvent, fileName, feed.getFeedName(), rowsRead, rowsDropped, bytesIn);
+        feed.parseEvent = null;
+    }
+
+    void addPhase(MergePhase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    // Wraps the output of the merged file so that the written bytes are counted
+    OutputStream countOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesOut += len;
+            }
+        };
+    }
+
+    // Called when all rows are stored and the store starts handing out the merged rows
+    void startDedupe() {
+        writeEvent = MergeEvents.INSTANCE.beginWrite();
+        dedupeStart = System.nanoTime();
+        writeStart = 0;
+    }
+
+    // Called for every merged row; the first one ends the dedupe phase
+    void rowWritten() {
+        if (writeStart == 0) {
+            writeStart = System.nanoTime();
+            addPhase(MergePhase.DEDUPE, writeStart - dedupeStart);
+        }
+        rowsWritten++;
+    }
+
+    // Called when the merged file is complete
+    void finishWrite() {
+        long now = System.nanoTime();
+        if (writeStart == 0) addPhase(MergePhase.DEDUPE, now - dedupeStart);
+        else addPhase(MergePhase.WRITE, now - writeStart);
+        MergeEvents.INSTANCE.endWrite(writeEvent, fileName, rowsWritten, bytesOut);
+        writeEvent = null;
+    }
+
+    // ---- Results ----
+
+    /**
+     * @return The name of the GTFS file, e.g. "stops.txt".
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return The metrics of every input feed that contains this file, in merge order.
+     */
+    public List<FeedMetrics> getFeeds() {
+        return Collections.unmodifiableList(feeds);
+    }
+
+    /**
+     * @return Data rows read from all feeds.
+     */
+    public long getRowsRead() {
+        long rows = 0;
+        for (FeedMetrics feed : feeds) rows += feed.getRowsRead();
+        return rows;
+    }
+
+    /**
+     * @return Rows written to the merged file, header not included.
+     */
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return Rows dropped because their ID was empty.
+     */
+    public long getRowsDropped() {
+        long rows = 0;
+        for (FeedMetrics feed : feeds) rows += feed.getRowsDropped();
+        return rows;
+    }
+
+    /**
+     * @return Rows that were overwritten by a later row with the same ID.
+     */
+    public long getDuplicatesOverwritten() {
+        return getRowsRead() - getRowsDropped() - rowsWritten;
+    }
+
+    /**
+     * @return Uncompressed bytes read from all feeds.
+     */
+    public long getBytesIn() {
+        long bytes = 0;
+        for (FeedMetrics feed : feeds) bytes += feed.getBytesIn();
+        return bytes;
+    }
+
+    /**
+     * @return Bytes written to the merged file (before ZIP compression).
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @param phase One of {@link MergePhase#HEADER}, {@link MergePhase#PARSE}, {@link MergePhase#DEDUPE}
+     *              or {@link MergePhase#WRITE}; the other phases are not measured per table.
+     * @return Time spent in the phase, in nanoseconds.
+     */
+    public long getPhaseNanos(MergePhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return Total time spent merging this table, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        long total = 0;
+        for (long nanos : phaseNanos) total += nanos;
+        return total;
+    }
+
+    /**
+     * @return Rows read per second of merge time.
+     */
+    public double getRowsPerSecond() {
+        return perSecond(getRowsRead(), getElapsedNanos());
+    }
+
+    /**
+     * @return Bytes read per second of merge time.
+     */
+    public double getBytesPerSecond() {
+        return perSecond(getBytesIn(), getElapsedNanos());
+    }
+
+    static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d rows read, %d written, %d duplicates, %d dropped, %d bytes in, %d bytes out,"
+                        + " header %d ms, parse %d ms, dedupe %d ms, write %d ms (%.0f rows/s)",
+                fileName, getRowsRead(), rowsWritten, getDuplicatesOverwritten(), getRowsDropped(), getBytesIn(), bytesOut,
+                millis(getPhaseNanos(MergePhase.HEADER)), millis(getPhaseNanos(MergePhase.PARSE)),
+                millis(getPhaseNanos(MergePhase.DEDUPE)), millis(getPhaseNanos(MergePhase.WRITE)), getRowsPerSecond());
+    }
+
+    static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,399 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * TarFeed is a GTFS feed read directly from a tar archive, plain ({@code .tar}) or gzip-compressed
+ * ({@code .tar.gz}, {@code .tgz}).
+ * <p>
+ * A tar archive has no central directory, so the constructor reads through it once and records the
+ * offset and size of every file at the root of the archive; a leading {@code ./} is ignored and files
+ * in subfolders are skipped. A plain archive is then read in place: every file is streamed from its
+ * offset, which is a seek, and nothing is kept in memory. A compressed archive cannot seek, and
+ * decompressing it from the start for every table would inflate it once per table, so the same single
+ * pass also decompresses every file into a temporary folder. The files are then read from there like
+ * the tables of a {@link DirectoryFeed}, and the folder is deleted when the feed is closed.
+ * </p>
+ */
+final class TarFeed implements GtfsFeed {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A file of the archive.
+     */
+    private static final class Entry {
+        final long offset; // of its data in the uncompressed archive
+        final long size;
+        final long lastModified;
+
+        Entry(long offset, long size, long lastModified) {
+            this.offset = offset;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File file;
+    private final boolean compressed;
+
+    // Files in archive order
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    // Temporary folder with the decompressed files of a compressed archive, and the feed reading it; null for a plain archive
+    private final File extractDir;
+    private final DirectoryFeed extracted;
+
+    /**
+     * Reads the list of files of the archive and, if it is compressed, decompresses them.
+     *
+     * @param file The tar archive.
+     * @throws IOException If the file cannot be read or is not a tar archive.
+     */
+    TarFeed(File file) throws IOException {
+        this.file = file;
+        this.compressed = isCompressed(file.getName());
+        this.extractDir = compressed ? Files.createTempDirectory("gtfs-tar").toFile() : null;
+        try (InputStream in = openArchive()) {
+            readEntries(in);
+        } catch (IOException | RuntimeException e) {
+            deleteExtracted();
+            throw e;
+        }
+        this.extracted = compressed ? new DirectoryFeed(extractDir) : null;
+    }
+
+    /**
+     * @param name A file name.
+     * @return {@code true} if the name ends with {@code .tar}, {@code .tar.gz} or {@code .tgz}.
+     */
+    static boolean isTarArchive(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".tar") || isCompressed(lower);
+    }
+
+    private static boolean isCompressed(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".tar.gz") || lower.endsWith(".tgz");
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public List<String> listFiles() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    @Override
+    public long fileSize(String fileName) {
+        Entry entry = entries.get(fileName);
+        return (entry == null) ? 0 : entry.size;
+    }
+
+    @Override
+    public long lastModified(String fileName) {
+        Entry entry = entries.get(fileName);
+        return (entry == null) ? 0 : entry.lastModified;
+    }
+
+    @Override
+    public InputStream openFile(String fileName) throws IOException {
+        Entry entry = entry(fileName);
+        if (extracted != null) return extracted.openFile(fileName);
+        return openData(entry);
+    }
+
+    /**
+     * Returns the decompressed file of a compressed archive, or {@code null} for a plain archive,
+     * whose files are only streamed.
+     */
+    @Override
+    public File localFile(String fileName) throws IOException {
+        entry(fileName);
+        return (extracted != null) ? extracted.localFile(fileName) : null;
+    }
+
+    /**
+     * A plain archive skips to any byte of a file by seeking, and the decompressed files of a
+     * compressed archive are plain files.
+     */
+    @Override
+    public boolean isSeekable(String fileName) {
+        return true;
+    }
+
+    /**
+     * Deletes the decompressed files of a compressed archive.
+     */
+    @Override
+    public void close() {
+        deleteExtracted();
+    }
+
+    private void deleteExtracted() {
+        if (extractDir == null) return;
+        File[] files = extractDir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        extractDir.delete();
+    }
+
+    private Entry entry(String fileName) throws FileNotFoundException {
+        Entry entry = entries.get(fileName);
+        if (entry == null) throw new FileNotFoundException(fileName + " not found in " + getName());
+        return entry;
+    }
+
+    private InputStream openArchive() throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (!compressed) return in;
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Opens the bytes of a file of a plain archive
+    private InputStream openData(Entry entry) throws IOException {
+        InputStream in = openArchive();
+        try {
+            skipFully(in, entry.offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new EntryInputStream(in, entry.size);
+    }
+
+    /**
+     * Reads the headers of the archive and records every regular file at its root; the files of a
+     * compressed archive are decompressed into the temporary folder on the way.
+     */
+    private void readEntries(InputStream in) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        long position = 0;
+        String longName = null; // from a GNU long name or a pax header, for the next entry
+
+        while (readBlock(in, header)) {
+            position += BLOCK_SIZE;
+            if (isZeroBlock(header)) break; // end of archive
+
+            long size = parseNumber(header, 124, 12);
+            long mtime = parseNumber(header, 136, 12);
+            byte type = header[156];
+            long padded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+
+            if (type == 'L' || type == 'x') {
+                // GNU long name or pax extended header: both describe the next entry
+                byte[] data = readData(in, size);
+                String name = (type == 'L') ? cString(data, 0, data.length) : paxPath(data);
+                if (name != null) longName = name;
+                skipFully(in, padded - size);
+                position += padded;
+                continue;
+            }
+
+            String name = (longName != null) ? longName : entryName(header);
+            longName = null;
+            boolean regularFile = type == '0' || type == 0 || type == '7';
+            if (name.startsWith("./")) name = name.substring(2);
+
+            // Only files at the root; this also keeps names like "../x" out of the temporary folder
+            boolean rootFile = !name.isEmpty() && name.indexOf('/') < 0 && !name.equals(".") && !name.equals("..");
+
+            if (regularFile && rootFile) {
+                entries.put(name, new Entry(position, size, mtime * 1000));
+                if (extractDir != null) {
+                    File target = new File(extractDir, name);
+                    copy(in, target, size);
+                    target.setLastModified(mtime * 1000);
+                    skipFully(in, padded - size);
+                } else {
+                    skipFully(in, padded);
+                }
+            } else {
+                skipFully(in, padded);
+            }
+            position += padded;
+        }
+    }
+
+    // Reads one header block; false at the end of the stream
+    private boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = in.read(block, read, block.length - read);
+            if (n < 0) {
+                if (read == 0) return false;
+                throw new EOFException(getName() + " is truncated");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private byte[] readData(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Tar header in " + getName() + " is too large");
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            int n = in.read(data, read, data.length - read);
+            if (n < 0) throw new EOFException(getName() + " is truncated");
+            read += n;
+        }
+        return data;
+    }
+
+    // Copies the next size bytes of the archive into a file
+    private void copy(InputStream in, File target, long size) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(target)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) throw new EOFException(getName() + " is truncated");
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    private void skipFully(InputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException(getName() + " is truncated");
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    // Name of a ustar entry: the prefix field, if any, followed by the name field
+    private static String entryName(byte[] header) {
+        String name = cString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        String prefix = ustar ? cString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    // The "path" record of a pax extended header ("<length> path=<value>\n"), or null
+    private String paxPath(byte[] data) throws IOException {
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') space++;
+            if (space == data.length) break;
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(getName() + " has a malformed tar header");
+            }
+            if (length <= 0 || length > data.length - pos) break;
+            // The record must hold more than its length field and end with a line feed
+            if (pos + length <= space + 1 || data[pos + length - 1] != '\n') {
+                throw new IOException(getName() + " has a malformed tar header");
+            }
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) return record.substring(5);
+            pos += length;
+        }
+        return null;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // An octal number, or a big-endian binary number if the high bit of the first byte is set
+    private long parseNumber(byte[] header, int offset, int length) throws IOException {
+        int end = offset + length;
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < end; i++) value = (value << 8) | (header[i] & 0xFF);
+            return value;
+        }
+        int i = offset;
+        while (i < end && header[i] == ' ') i++; // leading spaces
+        long value = 0;
+        for (; i < end && header[i] != 0 && header[i] != ' '; i++) {
+            byte c = header[i];
+            if (c < '0' || c > '7') throw new IOException(getName() + " has a malformed tar header");
+            value = value * 8 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Limits the stream of the archive to the bytes of one file.
+     */
+    private static final class EntryInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        EntryInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c >= 0) remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            if (skipped > 0) remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+}
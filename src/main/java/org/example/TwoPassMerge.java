@@ -0,0 +1,204 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TwoPassMerge merges one GTFS table without keeping its rows in memory.
+ * <p>
+ * The first pass reads every input file but decodes only the ID columns of each record. For every key
+ * it records where the current winning record is: its file, byte offset and length. Keys keep the
+ * position of their first occurrence and a later record replaces the location of an earlier one, the
+ * same rules as a {@link DedupeStore}. The second pass ({@link #forEachRow}) reads back only the
+ * winning records, in output order, and aligns them with the reference header. Memory use grows with
+ * the number of keys, not with the width of the rows, and the columns of overwritten rows are never
+ * decoded.
+ * </p>
+ * <p>
+ * The second pass reads the records at their offsets, so every input must be a file on disk
+ * ({@link GtfsFeed#localFile(String)}); see {@link #supports(List)}.
+ * </p>
+ */
+final class TwoPassMerge implements RowSource, Closeable {
+
+    /**
+     * Key of the records that never match another one, such as the rows of a table without an ID column.
+     */
+    static final Object UNIQUE = new Object();
+
+    /**
+     * Builds the key of a record from its ID columns.
+     */
+    interface KeyFunction {
+        /**
+         * @param keyRow A row in reference column order with only the key columns set.
+         * @return The key of the record ({@code String} or {@link CompositeKey}), {@link #UNIQUE},
+         *         or {@code null} if the merge drops it.
+         */
+        Object keyOf(String[] keyRow);
+    }
+
+    private final String[] refHeader;
+    private final int[] keyColumns;
+    private final KeyFunction keys;
+
+    // The non-empty input files, their column projections and (during the second pass) their channels
+    private final List<FeedFile> files = new ArrayList<>();
+    private final List<ColumnProjection> projections = new ArrayList<>();
+    private FileChannel[] channels;
+
+    // Slot of every key, in first-seen order
+    private final FingerprintIndex<Object> slots = new FingerprintIndex<>(TwoPassMerge::fingerprint);
+
+    // Location of the winning record of every slot: file, byte offset, length
+    private int[] winnerFiles = new int[1024];
+    private long[] winnerOffsets = new long[1024];
+    private int[] winnerLengths = new int[1024];
+
+    /**
+     * @param refHeader  The reference header of the table.
+     * @param keyColumns Reference columns that {@code keys} reads (the ID columns found in the header).
+     * @param keys       Builds the key of every record.
+     */
+    TwoPassMerge(String[] refHeader, int[] keyColumns, KeyFunction keys) {
+        this.refHeader = refHeader;
+        this.keyColumns = keyColumns;
+        this.keys = keys;
+    }
+
+    /**
+     * @param inputFiles The copies of a table.
+     * @return {@code true} if every non-empty copy is a file on disk that the second pass can read.
+     * @throws IOException If a feed cannot make its file available.
+     */
+    static boolean supports(List<FeedFile> inputFiles) throws IOException {
+        for (FeedFile file : inputFiles) {
+            if (file.getHeader() != null && file.getFeed().localFile(file.getFileName()) == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * First pass: reads the ID columns of every record and records the location of each key's winner.
+     *
+     * @param inputFiles The copies of the table, in feed order.
+     * @param metrics    Receives the rows and bytes read per feed.
+     * @param provenance Receives the feed and row of every key, or {@code null}.
+     * @throws IOException If a file cannot be read.
+     */
+    void index(List<FeedFile> inputFiles, TableMetrics metrics, ProvenanceIndex.Table provenance) throws IOException {
+        for (FeedFile file : inputFiles) {
+            String[] fileHeader = file.getHeader();
+            if (fileHeader == null) continue; // skip empty files
+
+            int fileOrdinal = files.size();
+            ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+            files.add(file);
+            projections.add(projection);
+
+            FeedMetrics feedMetrics = metrics.startFeed(file.getFeed().getName());
+            if (provenance != null) provenance.startFeed(file.getFeed(), fileHeader);
+            long parseStart = System.nanoTime();
+            long rowsRead = 0;
+            long rowsDropped = 0;
+
+            try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows())) {
+                long recordStart = 0;
+                while (reader.next()) {
+                    long record = rowsRead++;
+                    long recordEnd = reader.position();
+
+                    String[] keyRow = projection.alignColumns(reader, keyColumns);
+                    Object key = keys.keyOf(keyRow);
+                    if (key == null) {
+                        rowsDropped++;
+                    } else {
+                        if (provenance != null) provenance.add(record, keyRow);
+                        // The range may start with skipped blank lines; the second pass skips them again
+                        setWinner(key, fileOrdinal, file.headerLength() + recordStart, recordEnd - recordStart);
+                    }
+                    recordStart = recordEnd;
+                }
+                metrics.finishFeed(feedMetrics, rowsRead, rowsDropped, file.headerLength() + reader.position(), System.nanoTime() - parseStart);
+            }
+        }
+    }
+
+    private void setWinner(Object key, int file, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) throw new IOException("Record of " + files.get(file) + " at byte " + offset + " is too long");
+        int slot = (key == UNIQUE) ? slots.addUnique() : slots.add(key);
+        winnerFiles = FingerprintIndex.ensureSlot(winnerFiles, slot);
+        winnerOffsets = FingerprintIndex.ensureSlot(winnerOffsets, slot);
+        winnerLengths = FingerprintIndex.ensureSlot(winnerLengths, slot);
+        winnerFiles[slot] = file;
+        winnerOffsets[slot] = offset;
+        winnerLengths[slot] = (int) length;
+    }
+
+    // 64-bit fingerprint of a key returned by the key function
+    private static long fingerprint(Object key) {
+        if (key instanceof String) return HashIndexDedupeStore.fingerprint((String) key);
+        return ((CompositeKey) key).fingerprint();
+    }
+
+    /**
+     * Second pass: reads every winning record back and passes it to {@code sink}, aligned with the
+     * reference header, in the order the keys were first seen.
+     */
+    @Override
+    public void forEachRow(DedupeStore.RowSink sink) throws IOException {
+        openChannels();
+        int count = slots.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int slot = 0; slot < count; slot++) {
+            int file = winnerFiles[slot];
+            int length = winnerLengths[slot];
+            if (buffer.capacity() < length) buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+            readFully(file, winnerOffsets[slot], length, buffer);
+
+            try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(buffer.array(), 0, length), length + 1)) {
+                if (!reader.next()) throw new EOFException(files.get(file) + " changed while merging");
+                sink.accept(projections.get(file).align(reader));
+            }
+        }
+    }
+
+    private void openChannels() throws IOException {
+        if (channels != null) return;
+        channels = new FileChannel[files.size()];
+        for (int i = 0; i < channels.length; i++) {
+            FeedFile file = files.get(i);
+            File local = file.getFeed().localFile(file.getFileName());
+            channels[i] = new RandomAccessFile(local, "r").getChannel();
+        }
+    }
+
+    // Reads bytes [offset, offset + length) of an input file into the start of the buffer
+    private void readFully(int file, long offset, int length, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+        FileChannel channel = channels[file];
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset + buffer.position());
+            if (n < 0) throw new EOFException(files.get(file) + " changed while merging");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        slots.clear();
+        if (channels == null) return;
+        for (FileChannel channel : channels) {
+            if (channel != null) channel.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ValueInterner makes repeated field values of a table share one {@code String} instance.
+ * <p>
+ * Each column has its own bounded dictionary. A dictionary holds two generations of values:
+ * new values go into the young generation; when it is full, it becomes the old generation and the
+ * previous old generation is dropped. Values found in the old generation are moved back to the young
+ * one, so frequently used values survive (an approximate LRU with at most twice the bound per column).
+ * </p>
+ * <p>
+ * Columns where values rarely repeat (coordinates, free text) are detected after a number of lookups
+ * and are no longer interned, so they don't pay for the dictionary.
+ * </p>
+ * <p>
+ * An instance is not thread-safe; the merge methods use one instance per table.
+ * </p>
+ */
+final class ValueInterner {
+
+    // Lookups after which the hit rate of a column is checked
+    private static final int SAMPLE_SIZE = 10_000;
+
+    // Columns with a lower hit rate than this (in percent) are no longer interned
+    private static final int MIN_HIT_PERCENT = 10;
+
+    private final int maxSize;
+    private final Column[] columns;
+
+    /**
+     * @param columnCount Number of columns of the aligned rows.
+     * @param maxSize     Maximum number of values per column and generation.
+     */
+    ValueInterner(int columnCount, int maxSize) {
+        this.maxSize = maxSize;
+        this.columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) columns[i] = new Column();
+    }
+
+    /**
+     * Returns the shared instance of {@code value} for the given column.
+     *
+     * @param column Column index in the aligned row.
+     * @param value  The field value, or {@code null} for a cell the alignment left unset.
+     * @return An equal string, possibly an instance seen earlier; {@code null} for {@code null}.
+     */
+    String intern(int column, String value) {
+        if (value == null || value.isEmpty()) return value;
+        Column c = columns[column];
+        if (c.disabled) return value;
+
+        String shared = c.young.get(value);
+        if (shared == null) {
+            shared = c.old.get(value);
+            if (shared == null) {
+                c.misses++;
+                shared = value;
+            } else {
+                c.hits++;
+            }
+            // Remember the value in the young generation, rotating it when full
+            if (c.young.size() >= maxSize) {
+                c.old = c.young;
+                c.young = new HashMap<>();
+            }
+            c.young.put(shared, shared);
+        } else {
+            c.hits++;
+        }
+
+        // Stop interning columns whose values don't repeat
+        if (c.hits + c.misses == SAMPLE_SIZE && c.hits * 100 < (long) SAMPLE_SIZE * MIN_HIT_PERCENT) {
+            c.disabled = true;
+            c.young = new HashMap<>();
+            c.old = new HashMap<>();
+        }
+        return shared;
+    }
+
+    /**
+     * Interns every field of an aligned row in place.
+     *
+     * @param row Row aligned with the reference header.
+     */
+    void internRow(String[] row) {
+        for (int i = 0; i < row.length; i++) row[i] = intern(i, row[i]);
+    }
+
+    private static final class Column {
+        Map<String, String> young = new HashMap<>();
+        Map<String, String> old = new HashMap<>();
+        long hits;
+        long misses;
+        boolean disabled;
+    }
+}
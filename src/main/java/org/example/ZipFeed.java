@@ -0,0 +1,83 @@
+package org.example;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ZipFeed is a GTFS feed read directly from a ZIP archive.
+ * <p>
+ * Each GTFS file is streamed from its ZIP entry and decompressed on the fly, so nothing is
+ * extracted to disk. Entries are looked up by name at the root of the archive, the same
+ * place the merger looks for them in a folder.
+ * </p>
+ */
+class ZipFeed implements GtfsFeed {
+
+    private final String name;
+    private final ZipFile zipFile;
+
+    /**
+     * Opens the ZIP archive; only its central directory is read here.
+     *
+     * @param file The GTFS ZIP file.
+     * @throws IOException If the file cannot be opened as a ZIP archive.
+     */
+    ZipFeed(File file) throws IOException {
+        this.name = file.getName();
+        this.zipFile = new ZipFile(file);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> listFiles() {
+        List<String> names = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) names.add(entry.getName());
+        }
+        return names;
+    }
+
+    @Override
+    public long fileSize(String fileName) {
+        ZipEntry entry = zipFile.getEntry(fileName);
+        return (entry == null || entry.getSize() < 0) ? 0 : entry.getSize();
+    }
+
+    @Override
+    public long lastModified(String fileName) {
+        ZipEntry entry = zipFile.getEntry(fileName);
+        return (entry == null || entry.getTime() < 0) ? 0 : entry.getTime();
+    }
+
+    @Override
+    public InputStream openFile(String fileName) throws IOException {
+        ZipEntry entry = zipFile.getEntry(fileName);
+        if (entry == null || entry.isDirectory()) throw new FileNotFoundException(fileName + " not found in " + name);
+        return zipFile.getInputStream(entry);
+    }
+
+    /**
+     * @return The opened archive.
+     */
+    ZipFile zipFile() {
+        return zipFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+}
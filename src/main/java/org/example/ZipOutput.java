@@ -0,0 +1,104 @@
+package org.example;
+
+import java.io.*;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZipOutput writes the merged GTFS feed directly into a single ZIP file.
+ * <p>
+ * Every merged file becomes one entry that is compressed while it is written, so the feed is
+ * produced in one pass without loose .txt files. A ZIP file can only receive one entry at a time:
+ * when tables are merged concurrently, {@link #openFile(String)} blocks until the entry that is
+ * currently being written is closed.
+ * </p>
+ */
+class ZipOutput implements MergeOutput {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File zipFile;
+    private final ZipOutputStream zos;
+
+    // Allows one open entry at a time
+    private final Semaphore entryLock = new Semaphore(1);
+    private int entryCount;
+
+    /**
+     * Creates the ZIP file.
+     *
+     * @param zipFile The ZIP file to create; missing parent folders are created.
+     * @param level   Deflate level from 0 (store, fastest) to 9 (smallest),
+     *                or -1 for the default level.
+     * @throws IOException If the file cannot be created.
+     */
+    ZipOutput(File zipFile, int level) throws IOException {
+        this.zipFile = zipFile;
+        File parent = zipFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        this.zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE));
+        this.zos.setLevel(level);
+    }
+
+    @Override
+    public OutputStream openFile(String fileName) throws IOException {
+        try {
+            entryLock.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the ZIP output");
+        }
+        try {
+            zos.putNextEntry(new ZipEntry(fileName));
+            entryCount++;
+        } catch (IOException e) {
+            entryLock.release();
+            throw e;
+        }
+        return new EntryStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // A ZIP file needs at least one entry; without any merged file no ZIP is produced
+        if (entryCount == 0) {
+            try {
+                zos.close();
+            } catch (IOException ignored) {
+                // "ZIP file must have at least one entry"
+            }
+            zipFile.delete();
+            return;
+        }
+        zos.close();
+    }
+
+    /**
+     * Writes into the current ZIP entry; closing it closes the entry, not the ZIP file.
+     */
+    private class EntryStream extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            zos.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            zos.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                zos.closeEntry();
+            } finally {
+                entryLock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedCsvParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // Values that move the quote parity: quoted line breaks and commas, doubled quotes, empty quotes
+    private static final String[] VALUES = {
+            "plain", "", "\"a,b\"", "\"line\nbreak\"", "\"say \"\"hi\"\"\"", "\"\"", "\"\"\"\"", "İzmir",
+            "\"\n\n\"", "\"x\"\"\ny\"", "12.5"};
+
+    /**
+     * The records of one parse: their indexes among the data rows, and the rows.
+     */
+    private static final class Parsed {
+        final List<Long> records = new ArrayList<>();
+        final List<String[]> rows = new ArrayList<>();
+        ChunkedCsvParser.Result result;
+    }
+
+    // A file with quoted line breaks everywhere, CRLF line endings on some records and blank lines
+    private static String randomCsv(long seed, int rows) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("stop_id,stop_name,stop_desc\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append('S').append(i);
+            for (int c = 1; c < 3; c++) csv.append(',').append(VALUES[random.nextInt(VALUES.length)]);
+            csv.append(random.nextInt(4) == 0 ? "\r\n" : "\n");
+            if (random.nextInt(20) == 0) csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    // Drops every record whose stop_id ends with 3, to check the record indexes of dropped rows
+    private static String[] parseRow(GtfsCsvReader reader) {
+        String id = reader.field(0);
+        return id.endsWith("3") ? null : reader.row();
+    }
+
+    private static Parsed parse(ChunkedCsvParser parser, FeedFile file) throws IOException {
+        Parsed parsed = new Parsed();
+        parsed.result = parser.parse(file, ChunkedCsvParserTest::parseRow, (record, row) -> {
+            parsed.records.add(record);
+            parsed.rows.add(row);
+        });
+        return parsed;
+    }
+
+    private static void assertSameParse(String message, Parsed expected, Parsed actual) {
+        assertEquals(message, expected.records, actual.records);
+        assertEquals(message, expected.rows.size(), actual.rows.size());
+        for (int i = 0; i < expected.rows.size(); i++) assertArrayEquals(message + ", row " + i, expected.rows.get(i), actual.rows.get(i));
+        assertEquals(message, expected.result.rowsRead, actual.result.rowsRead);
+        assertEquals(message, expected.result.rowsDropped, actual.result.rowsDropped);
+        assertEquals(message, expected.result.bytesRead, actual.result.bytesRead);
+    }
+
+    @Test
+    public void chunksSplitOnlyBetweenRecords() throws IOException {
+        File dir = tmp.newFolder("feed");
+        String csv = randomCsv(17, 400);
+        GtfsTestFiles.writeFeed(dir.getParentFile(), dir.getName(), "stops.txt", csv);
+
+        // OpenCSV without the header and the blank lines, and without the dropped rows
+        List<String[]> openCsv = new ArrayList<>();
+        for (String[] row : GtfsTestFiles.parseWithOpenCsv(csv)) {
+            if (row.length > 1 && !row[0].equals("stop_id")) openCsv.add(row);
+        }
+
+        for (long mapThreshold : new long[]{0, 1}) {
+            FeedFile file = FeedCatalog.describe(new DirectoryFeed(dir, mapThreshold), "stops.txt");
+            Parsed sequential = parse(new ChunkedCsvParser(1, ChunkedCsvParser.DEFAULT_CHUNK_SIZE, false), file);
+            assertEquals(csv.getBytes(StandardCharsets.UTF_8).length, sequential.result.bytesRead);
+            assertEquals(openCsv.size(), sequential.result.rowsRead);
+            int kept = 0;
+            for (String[] row : openCsv) {
+                if (row[0].endsWith("3")) continue;
+                assertArrayEquals(row, sequential.rows.get(kept++));
+            }
+            assertEquals(kept, sequential.rows.size());
+
+            // Small chunks put range starts inside quoted fields, between \r and \n and on blank lines
+            for (long chunkSize : new long[]{16, 33, 100, 1000}) {
+                Parsed chunked = parse(new ChunkedCsvParser(4, chunkSize, false), file);
+                assertSameParse("map threshold " + mapThreshold + ", chunk size " + chunkSize, sequential, chunked);
+            }
+        }
+    }
+
+    @Test
+    public void quotedFieldLongerThanAChunkStaysWhole() throws IOException {
+        StringBuilder longValue = new StringBuilder("\"");
+        for (int i = 0; i < 200; i++) longValue.append("x,\n\"\"");
+        longValue.append('"');
+        String csv = "stop_id,stop_name\nS1," + longValue + "\nS2,after\nS4," + longValue + "\n";
+
+        File dir = tmp.newFolder("feed");
+        GtfsTestFiles.writeFeed(dir.getParentFile(), dir.getName(), "stops.txt", csv);
+        FeedFile file = FeedCatalog.describe(new DirectoryFeed(dir), "stops.txt");
+
+        Parsed sequential = parse(new ChunkedCsvParser(1, ChunkedCsvParser.DEFAULT_CHUNK_SIZE, false), file);
+        assertEquals(3, sequential.rows.size());
+        assertTrue(sequential.rows.get(0)[1].startsWith("x,\n\"x,\n\""));
+        for (long chunkSize : new long[]{8, 64, 300}) {
+            assertSameParse("chunk size " + chunkSize, sequential, parse(new ChunkedCsvParser(3, chunkSize, false), file));
+        }
+    }
+}
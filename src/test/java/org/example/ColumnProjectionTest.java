@@ -0,0 +1,124 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnProjectionTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * The alignment the merge methods used before ColumnProjection: two HashMap lookups per cell.
+     */
+    private static String[] hashMapAlign(String[] refHeader, String[] fileHeader, String[] record) {
+        Map<String, Integer> refIndex = new HashMap<>();
+        for (int i = 0; i < refHeader.length; i++) refIndex.put(refHeader[i], i);
+        Map<String, Integer> fileIndex = new HashMap<>();
+        for (int i = 0; i < fileHeader.length; i++) fileIndex.put(fileHeader[i], i);
+        String[] alignedRow = new String[refHeader.length];
+        for (String col : refHeader) {
+            Integer idx = fileIndex.get(col);
+            alignedRow[refIndex.get(col)] = (idx != null && idx < record.length) ? record[idx] : "";
+        }
+        return alignedRow;
+    }
+
+    private static void assertAlignsLikeHashMaps(String[] refHeader, String[] fileHeader, String csv) throws IOException {
+        List<String[]> expected = GtfsTestFiles.parseWithOpenCsv(csv);
+        ColumnProjection projection = ColumnProjection.of(refHeader, fileHeader);
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))) {
+            for (String[] record : expected) {
+                assertTrue(reader.next());
+                assertArrayEquals(hashMapAlign(refHeader, fileHeader, record), projection.align(reader));
+            }
+        }
+    }
+
+    @Test
+    public void sameColumnsAreCopiedStraightAcross() throws IOException {
+        String[] header = {"stop_id", "stop_name", "stop_lat"};
+        assertAlignsLikeHashMaps(header, header, "S1,One,1.5\nS2,\"Two, \"\"B\"\"\",2.5\nS3,Three\n");
+    }
+
+    @Test
+    public void reorderedAndMissingColumnsMatchHashMapAlignment() throws IOException {
+        String[] refHeader = {"stop_id", "stop_name", "stop_lat", "zone_id"};
+        String[] fileHeader = {"stop_lat", "extra", "stop_id", "stop_name"};
+        assertAlignsLikeHashMaps(refHeader, fileHeader, "1.5,x,S1,One\n2.5,y,S2\n,,,\n");
+    }
+
+    @Test
+    public void duplicateColumnsMatchHashMapAlignment() throws IOException {
+        String[] refHeader = {"stop_id", "stop_name", "stop_name", "stop_lat"};
+        String[] fileHeader = {"stop_name", "stop_id", "stop_name"};
+        assertAlignsLikeHashMaps(refHeader, fileHeader, "first,S1,last\nonly,S2\n");
+    }
+
+    @Test
+    public void alignColumnsDecodesOnlyTheRequestedColumns() throws IOException {
+        ColumnProjection projection = ColumnProjection.of(new String[]{"trip_id", "stop_sequence", "stop_id"},
+                new String[]{"stop_id", "trip_id"});
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream("S1,T1\n".getBytes(StandardCharsets.UTF_8)))) {
+            assertTrue(reader.next());
+            assertArrayEquals(new String[]{"T1", "", null}, projection.alignColumns(reader, new int[]{0, 1}));
+        }
+    }
+
+    /**
+     * Merges two feeds whose reference headers repeat a column. The repeated column leaves null cells in
+     * the aligned rows; the interner and the row stores must accept them, and the output writes them as
+     * empty unquoted fields.
+     */
+    static void assertMergesDuplicateColumns(TemporaryFolder tmp, Consumer<FullGtfsMerger> settings) throws Exception {
+        File root = tmp.newFolder();
+        GtfsTestFiles.writeFeed(root, "a", "stops.txt", "stop_id,stop_name,stop_name\nS1,first,One\nS2,first,Two\n",
+                "stop_times.txt", "trip_id,stop_sequence,stop_id,stop_id\nT1,1,x,S1\nT1,2,x,S2\n");
+        GtfsTestFiles.writeFeed(root, "b", "stops.txt", "stop_id,stop_name\nS3,Three\n",
+                "stop_times.txt", "trip_id,stop_sequence,stop_id\nT2,1,S3\n");
+
+        FullGtfsMerger merger = new FullGtfsMerger();
+        settings.accept(merger);
+        File out = new File(tmp.newFolder(), "merged");
+        assertTrue(merger.mergeFeedsFromFolders(root.getPath(), out.getPath(), "long"));
+
+        String stops = "\"stop_id\",\"stop_name\",\"stop_name\"\n\"S1\",,\"One\"\n\"S2\",,\"Two\"\n\"S3\",,\"Three\"\n";
+        String stopTimes = "\"trip_id\",\"stop_sequence\",\"stop_id\",\"stop_id\"\n\"T1\",\"1\",,\"S1\"\n\"T1\",\"2\",,\"S2\"\n\"T2\",\"1\",,\"S3\"\n";
+        assertEquals(GtfsTestFiles.sortedLines(stops), GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "stops.txt"))));
+        assertEquals(GtfsTestFiles.sortedLines(stopTimes), GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "stop_times.txt"))));
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesWithInterning() throws Exception {
+        assertMergesDuplicateColumns(tmp, merger -> { });
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesWithoutInterning() throws Exception {
+        assertMergesDuplicateColumns(tmp, merger -> merger.setInternPoolSize(0));
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesPipelined() throws Exception {
+        assertMergesDuplicateColumns(tmp, merger -> merger.setPipelined(true));
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesInTwoPasses() throws Exception {
+        assertMergesDuplicateColumns(tmp, merger -> merger.setTwoPass(true));
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks a {@link DedupeStore} against a {@link LinkedHashMap}, which is what the merge methods used
+ * originally: the latest row of a key wins, at the position where the key was first seen.
+ */
+final class DedupeStoreChecks {
+
+    private static final String[] VALUES = {"", "a", "b,c", "\"quoted\"", "İzmir", "line\nbreak", "🚌", "12.5"};
+
+    private DedupeStoreChecks() {
+    }
+
+    /**
+     * Puts random rows under random keys and compares the rows the store returns with the reference.
+     *
+     * @param store        The store under test; closed afterwards.
+     * @param rows         Number of rows to put.
+     * @param distinctKeys Number of different keys, so that about {@code rows / distinctKeys} rows share a key.
+     * @param seed         Seed of the random rows.
+     */
+    static void assertBehavesLikeLinkedHashMap(DedupeStore<String> store, int rows, int distinctKeys, long seed) throws IOException {
+        Random random = new Random(seed);
+        Map<String, String[]> expected = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < rows; i++) {
+                String key = "K" + random.nextInt(distinctKeys);
+                String[] row = randomRow(random, key);
+                expected.put(key, row);
+                store.put(key, row);
+            }
+            List<String[]> actual = new ArrayList<>();
+            store.forEachRow(actual::add);
+
+            assertEquals(expected.size(), actual.size());
+            int i = 0;
+            for (String[] row : expected.values()) assertArrayEquals("row " + i, row, actual.get(i++));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * A row with its key in the first cell and random values, empty strings and null cells in the others.
+     */
+    static String[] randomRow(Random random, String key) {
+        String[] row = new String[5];
+        row[0] = key;
+        for (int c = 1; c < row.length; c++) {
+            int pick = random.nextInt(VALUES.length + 1);
+            row[c] = (pick == VALUES.length) ? null : VALUES[pick] + random.nextInt(100);
+        }
+        return row;
+    }
+}
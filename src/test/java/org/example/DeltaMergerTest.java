@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaMergerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String STOPS_HEADER = "stop_id,stop_name\n";
+    private static final String STOP_TIMES_HEADER = "trip_id,stop_sequence,stop_id\n";
+
+    /**
+     * Merges three feeds with a provenance index, replaces the middle one, applies it as a delta and
+     * compares the output with a full merge of the updated feeds.
+     */
+    private void assertDeltaMatchesFullMerge(Consumer<FullGtfsMerger> settings, String... changedFiles) throws Exception {
+        File root = tmp.newFolder();
+        GtfsTestFiles.writeFeed(root, "a",
+                "stops.txt", STOPS_HEADER + "S1,a1\nS2,a2\nS3,a3\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T1,1,S1\nT1,2,S2\nT1,x2,S3\n",
+                "feed_info.txt", "feed_publisher_name\nA\n");
+        GtfsTestFiles.writeFeed(root, "b",
+                "stops.txt", STOPS_HEADER + "S2,b2\nS4,b4\nS5,b5\nS4,b4 again\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T1,2,S4\nT2,1,S4\nT2,2,S5\nT2,x3,S5\n",
+                "trips.txt", "route_id,service_id,trip_id\nR1,C1,T1\nR1,C1,T2\n",
+                "feed_info.txt", "feed_publisher_name\nB\nB2\n");
+        GtfsTestFiles.writeFeed(root, "c",
+                "stops.txt", STOPS_HEADER + "S5,c5\nS6,c6\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T2,2,S6\nT3,1,S6\n",
+                "trips.txt", "route_id,service_id,trip_id\nR2,C1,T3\n");
+
+        File outRoot = tmp.newFolder();
+        File deltaOut = new File(outRoot, "delta");
+        FullGtfsMerger merger = new FullGtfsMerger();
+        settings.accept(merger);
+        merger.setProvenanceIndex(true);
+        assertTrue(merger.mergeFeedsFromFolders(root.getPath(), deltaOut.getPath(), "long"));
+
+        // Replace feed b; the files not given are removed
+        File b = new File(root, "b");
+        for (File f : b.listFiles()) assertTrue(f.delete());
+        GtfsTestFiles.writeFeed(root, "b", changedFiles);
+        assertTrue(merger.mergeFeedDelta(b.getPath(), deltaOut.getPath()));
+
+        FullGtfsMerger reference = new FullGtfsMerger();
+        File fullOut = new File(outRoot, "full");
+        assertTrue(reference.mergeFeedsFromFolders(root.getPath(), fullOut.getPath(), "long"));
+        assertEquals(GtfsTestFiles.readFolder(fullOut), GtfsTestFiles.readFolder(deltaOut));
+
+        // Applying the same version again leaves the output unchanged
+        assertTrue(merger.mergeFeedDelta(b.getPath(), deltaOut.getPath()));
+        assertEquals(GtfsTestFiles.readFolder(fullOut), GtfsTestFiles.readFolder(deltaOut));
+    }
+
+    private void assertUpdatesMatchFullMerge(Consumer<FullGtfsMerger> settings) throws Exception {
+        // Removed, changed, new and repeated keys; S5 and T2/2 stay with feed c, S2 and T1/2 fall back to feed a
+        assertDeltaMatchesFullMerge(settings,
+                "stops.txt", STOPS_HEADER + "S7,b7\nS4,b4 changed\nS5,b5 changed\nS7,b7 again\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T2,x3,S7\nT2,2,S7\nT2,1,S4\nT4,1,S7\n",
+                "trips.txt", "route_id,service_id,trip_id\nR1,C1,T2\nR1,C1,T4\n",
+                "feed_info.txt", "feed_publisher_name\nB3\n");
+    }
+
+    @Test
+    public void deltaMatchesFullMergeInMemory() throws Exception {
+        assertUpdatesMatchFullMerge(merger -> { });
+    }
+
+    @Test
+    public void deltaMatchesFullMergeWithTheExternalSort() throws Exception {
+        assertUpdatesMatchFullMerge(merger -> {
+            merger.setExternalSort(true);
+            merger.setExternalSortMemory(256);
+        });
+    }
+
+    @Test
+    public void deltaMatchesFullMergeOffHeap() throws Exception {
+        assertUpdatesMatchFullMerge(merger -> merger.setOffHeapRows(true));
+    }
+
+    @Test
+    public void deltaMatchesFullMergeInTwoPassMode() throws Exception {
+        assertUpdatesMatchFullMerge(merger -> {
+            merger.setTwoPass(true);
+            merger.setExternalSortMemory(256);
+        });
+    }
+
+    @Test
+    public void removedTablesAndFirstOccurrencesFollowTheFullMerge() throws Exception {
+        // Feed b no longer has trips.txt and feed_info.txt, and keys it placed first move to feed c
+        assertDeltaMatchesFullMerge(merger -> { },
+                "stops.txt", STOPS_HEADER + "S1,b1\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T1,1,S1\n");
+    }
+
+    @Test
+    public void changedReferenceHeaderMergesTheTableAgain() throws Exception {
+        assertDeltaMatchesFullMerge(merger -> { },
+                "stops.txt", "stop_id,stop_name,zone_id\nS2,b2,Z\nS8,b8,Z\n",
+                "stop_times.txt", STOP_TIMES_HEADER + "T1,2,S4\n");
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryFeedTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String read(GtfsFeed feed, String fileName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = feed.openFile(fileName)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void compressedTablesAreListedAndReadUnderTheirPlainName() throws IOException {
+        File dir = tmp.newFolder("feed");
+        String stops = "stop_id,stop_name\nS1,One\n";
+        GtfsTestFiles.write(new File(dir, "stops.txt.gz"), gzip(stops));
+        GtfsTestFiles.write(new File(dir, "trips.txt"), "route_id,service_id,trip_id\nR1,C1,T1\n".getBytes(StandardCharsets.UTF_8));
+        GtfsTestFiles.write(new File(dir, "trips.txt.gz"), gzip("stale"));
+
+        DirectoryFeed feed = new DirectoryFeed(dir);
+        assertEquals(new HashSet<>(Arrays.asList("stops.txt", "trips.txt")), new HashSet<>(feed.listFiles()));
+        assertEquals(2, feed.listFiles().size());
+
+        assertEquals(stops, read(feed, "stops.txt"));
+        assertEquals(stops.length(), feed.fileSize("stops.txt"));
+        assertNull(feed.localFile("stops.txt"));
+        assertFalse(feed.isSeekable("stops.txt"));
+
+        // The plain file wins over its compressed copy
+        assertEquals("route_id,service_id,trip_id\nR1,C1,T1\n", read(feed, "trips.txt"));
+        assertEquals(new File(dir, "trips.txt"), feed.localFile("trips.txt"));
+        assertTrue(feed.isSeekable("trips.txt"));
+    }
+
+    @Test
+    public void givenFilesAreUsedBeforeTheyExist() throws IOException {
+        File dir = tmp.newFolder("extracting");
+        DirectoryFeed feed = new DirectoryFeed(dir, 0, new String[]{"stops.txt.gz", "trips.txt"});
+        assertEquals(new HashSet<>(Arrays.asList("stops.txt", "trips.txt")), new HashSet<>(feed.listFiles()));
+        assertFalse(feed.isSeekable("stops.txt"));
+
+        // The files arrive after the feed was created
+        String stops = "stop_id,stop_name\nS1,One\n";
+        GtfsTestFiles.write(new File(dir, "stops.txt.gz"), gzip(stops));
+        assertEquals(stops, read(feed, "stops.txt"));
+        assertEquals(stops.length(), feed.fileSize("stops.txt"));
+    }
+
+    @Test
+    public void compressedTablesMergeLikePlainOnes() throws Exception {
+        String stopsA = "stop_id,stop_name\nS1,One\nS2,Two\n";
+        String stopTimesA = "trip_id,stop_sequence,stop_id\nT1,1,S1\nT1,2,S2\n";
+        String stopsB = "stop_id,stop_name\nS3,Three\n";
+
+        File plain = tmp.newFolder("plain");
+        GtfsTestFiles.writeFeed(plain, "a", "stops.txt", stopsA, "stop_times.txt", stopTimesA);
+        GtfsTestFiles.writeFeed(plain, "b", "stops.txt", stopsB);
+
+        File compressed = tmp.newFolder("compressed");
+        GtfsTestFiles.write(new File(compressed, "a/stops.txt.gz"), gzip(stopsA));
+        GtfsTestFiles.write(new File(compressed, "a/stop_times.txt.gz"), gzip(stopTimesA));
+        GtfsTestFiles.write(new File(compressed, "b/stops.txt.gz"), gzip(stopsB));
+
+        // The feeds share no key, so the result doesn't depend on the order the folders are listed in
+        File out = tmp.newFolder("out");
+        for (boolean twoPass : new boolean[]{false, true}) {
+            FullGtfsMerger merger = new FullGtfsMerger();
+            merger.setTwoPass(twoPass);
+            assertTrue(merger.mergeFeedsFromFolders(plain.getPath(), new File(out, "plain" + twoPass).getPath(), "long"));
+            assertTrue(merger.mergeFeedsFromFolders(compressed.getPath(), new File(out, "compressed" + twoPass).getPath(), "long"));
+            for (String table : new String[]{"stops.txt", "stop_times.txt"}) {
+                assertEquals(GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "plain" + twoPass + "/" + table))),
+                        GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "compressed" + twoPass + "/" + table))));
+            }
+        }
+    }
+}
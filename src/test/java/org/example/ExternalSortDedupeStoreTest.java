@@ -0,0 +1,52 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ExternalSortDedupeStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ExternalSortDedupeStore<String> store(long memoryBudget) throws IOException {
+        return new ExternalSortDedupeStore<>(memoryBudget, key -> key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rowsThatFitTheBudgetAreMergedInMemory() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(64L * 1024 * 1024), 5_000, 1_000, 1);
+    }
+
+    @Test
+    public void fewRunsAreMergedInOnePass() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(64 * 1024), 5_000, 1_000, 2);
+    }
+
+    @Test
+    public void moreRunsThanTheFanInAreMergedInSeveralPasses() throws IOException {
+        // A tiny budget writes a run every few rows, far more than the 64 runs merged at once
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(2 * 1024), 20_000, 3_000, 3);
+    }
+
+    @Test
+    public void everyKeyDistinct() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(4 * 1024), 10_000, Integer.MAX_VALUE, 4);
+    }
+
+    @Test
+    public void singleKeyKeepsTheLatestRow() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(1024), 2_000, 1, 5);
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesWithTheExternalSort() throws Exception {
+        ColumnProjectionTest.assertMergesDuplicateColumns(tmp, merger -> {
+            merger.setExternalSort(true);
+            merger.setExternalSortMemory(1024);
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FeedCatalogTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // Counts how often every file is opened, for the header or for the rows
+    private static final class CountingFeed extends DirectoryFeed {
+        final Map<String, Integer> opens = new HashMap<>();
+
+        CountingFeed(File dir, long mapThreshold) {
+            super(dir, mapThreshold);
+        }
+
+        @Override
+        public InputStream openFile(String fileName) throws IOException {
+            opens.merge(fileName, 1, Integer::sum);
+            return super.openFile(fileName);
+        }
+    }
+
+    private static List<String[]> readRows(FeedFile file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (GtfsCsvReader reader = new GtfsCsvReader(file.openRows(), 16)) {
+            String[] row;
+            while ((row = reader.readRecord()) != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void assertRowsEqual(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertArrayEquals("row " + i, expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void rowsAreReadOnFromTheHeaderScan() throws IOException {
+        // stop_times.txt is larger than the header buffer, stops.txt fits into it, trips.txt is compressed
+        Random random = new Random(51);
+        List<String[]> randomRows = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) randomRows.add(DedupeStoreChecks.randomRow(random, "T" + i));
+        String stopTimesRows = GtfsTestFiles.writeWithOpenCsv(randomRows);
+        List<String[]> stopTimes = GtfsTestFiles.parseWithTokenizer(stopTimesRows.getBytes(StandardCharsets.UTF_8));
+        List<String[]> stops = new ArrayList<>();
+        stops.add(new String[]{"S1", "One"});
+        stops.add(new String[]{"S2", "Two, \"quoted\""});
+        List<String[]> trips = new ArrayList<>();
+        trips.add(new String[]{"R1", "C1", "T1"});
+
+        File dir = tmp.newFolder("feed");
+        GtfsTestFiles.write(new File(dir, "stop_times.txt"), ("\uFEFFtrip_id,a,b,c,d\n" + stopTimesRows).getBytes(StandardCharsets.UTF_8));
+        GtfsTestFiles.write(new File(dir, "stops.txt"), ("stop_id,stop_name\r\n" + GtfsTestFiles.writeWithOpenCsv(stops)).getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write("route_id,service_id,trip_id\nR1,C1,T1\n".getBytes(StandardCharsets.UTF_8));
+        }
+        GtfsTestFiles.write(new File(dir, "trips.txt.gz"), gzipped.toByteArray());
+
+        for (long mapThreshold : new long[]{0, 1}) {
+            CountingFeed feed = new CountingFeed(dir, mapThreshold);
+            try (FeedCatalog catalog = FeedCatalog.scan(Arrays.<GtfsFeed>asList(feed), Arrays.asList("stop_times.txt", "stops.txt", "trips.txt"))) {
+                FeedFile stopTimesFile = catalog.filesOf("stop_times.txt").get(0);
+                assertArrayEquals(new String[]{"trip_id", "a", "b", "c", "d"}, stopTimesFile.getHeader());
+                assertRowsEqual(stopTimes, readRows(stopTimesFile));
+                assertRowsEqual(stops, readRows(catalog.filesOf("stops.txt").get(0)));
+                assertRowsEqual(trips, readRows(catalog.filesOf("trips.txt").get(0)));
+                for (String name : Arrays.asList("stop_times.txt", "stops.txt", "trips.txt")) {
+                    assertEquals("opens of " + name + ", map threshold " + mapThreshold, 1, (int) feed.opens.get(name));
+                }
+
+                // A second pass opens the file anew and skips the header
+                assertRowsEqual(stopTimes, readRows(stopTimesFile));
+                assertEquals(2, (int) feed.opens.get("stop_times.txt"));
+            }
+        }
+    }
+
+    @Test
+    public void closedFilesOpenTheirRowsAnew() throws IOException {
+        File dir = tmp.newFolder("feed");
+        StringBuilder stops = new StringBuilder("stop_id,stop_name\n");
+        for (int i = 0; i < 2_000; i++) stops.append('S').append(i).append(",Stop ").append(i).append('\n');
+        GtfsTestFiles.write(new File(dir, "stops.txt"), stops.toString().getBytes(StandardCharsets.UTF_8));
+
+        CountingFeed feed = new CountingFeed(dir, 0);
+        FeedCatalog catalog = FeedCatalog.scan(Arrays.<GtfsFeed>asList(feed), Arrays.asList("stops.txt"));
+        catalog.close(); // releases the stream of the header scan
+        FeedFile file = catalog.filesOf("stops.txt").get(0);
+        List<String[]> rows = readRows(file);
+        assertEquals(2_000, rows.size());
+        assertArrayEquals(new String[]{"S1999", "Stop 1999"}, rows.get(1_999));
+        assertEquals(2, (int) feed.opens.get("stops.txt"));
+    }
+}
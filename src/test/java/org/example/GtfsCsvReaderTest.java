@@ -0,0 +1,174 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GtfsCsvReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertRowsEqual(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertArrayEquals("row " + i, expected.get(i), actual.get(i));
+    }
+
+    // The tokenizer reads with a 16-byte buffer, so most records cross a refill or grow the buffer
+    private static void assertParsesLikeOpenCsv(String csv) throws IOException {
+        assertRowsEqual(GtfsTestFiles.parseWithOpenCsv(csv), GtfsTestFiles.parseWithTokenizer(utf8(csv)));
+    }
+
+    @Test
+    public void plainFieldsParseLikeOpenCsv() throws IOException {
+        assertParsesLikeOpenCsv("stop_id,stop_name,stop_lat,stop_lon\nS1,Main Street,52.5,13.4\nS2,,,\n");
+        assertParsesLikeOpenCsv("a,b\n1,2"); // no line break after the last record
+        assertParsesLikeOpenCsv("a,b,\n1,2,\n"); // trailing empty field
+        assertParsesLikeOpenCsv("name\nİzmir Otogarı\n東京駅\n🚌 Bus\n");
+    }
+
+    @Test
+    public void quotedFieldsParseLikeOpenCsv() throws IOException {
+        assertParsesLikeOpenCsv("a,b,c\n\"x\",\"y, z\",\"\"\n");
+        assertParsesLikeOpenCsv("a,b\n\"say \"\"hi\"\"\",\"\"\"\"\n");
+        assertParsesLikeOpenCsv("a,b\n\"first\nsecond\",2\n\"\n\",\"a very long quoted value that is longer than the buffer, with, commas\"\n");
+    }
+
+    @Test
+    public void crlfLineEndingsParseLikeOpenCsv() throws IOException {
+        assertParsesLikeOpenCsv("a,b\r\n1,\"2\"\r\n\"x,y\",\r\n");
+        assertParsesLikeOpenCsv("a,b\r\n1,2");
+    }
+
+    @Test
+    public void blankLinesAreSkipped() throws IOException {
+        // OpenCSV returns a row with one empty field for a blank line; the merger dropped those rows
+        List<String[]> expected = new ArrayList<>();
+        expected.add(new String[]{"a", "b"});
+        expected.add(new String[]{"1", "2"});
+        expected.add(new String[]{"3", "4"});
+        assertRowsEqual(expected, GtfsTestFiles.parseWithTokenizer(utf8("\na,b\n\n1,2\r\n\r\n3,4\n\n")));
+    }
+
+    @Test
+    public void positionCountsTheBytesOfTheRecordsRead() throws IOException {
+        byte[] csv = utf8("stop_id,stop_name\r\n\"S1\",\"Zürich\nHB\"\nS2,x\n");
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(csv), 16)) {
+            assertTrue(reader.next());
+            assertEquals(19, reader.position());
+            assertTrue(reader.next());
+            assertEquals(2, reader.fieldCount());
+            assertEquals("Zürich\nHB", reader.field(1));
+            assertFalse(reader.isEmpty(0));
+            assertEquals(csv.length - 5, reader.position());
+            assertTrue(reader.next());
+            assertEquals(csv.length, reader.position());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void byteOrderMarkIsSkippedAndCounted() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] header = utf8("stop_id,stop_name\n");
+        byte[] csv = new byte[bom.length + header.length];
+        System.arraycopy(bom, 0, csv, 0, bom.length);
+        System.arraycopy(header, 0, csv, bom.length, header.length);
+
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(csv), 16)) {
+            assertTrue(reader.skipByteOrderMark());
+            assertArrayEquals(new String[]{"stop_id", "stop_name"}, reader.readRecord());
+            assertEquals(csv.length, reader.position());
+        }
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(header), 16)) {
+            assertFalse(reader.skipByteOrderMark());
+            assertEquals(0, reader.position());
+        }
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(new byte[]{'a'}), 16)) {
+            assertFalse(reader.skipByteOrderMark()); // shorter than a byte order mark
+        }
+    }
+
+    @Test
+    public void utf16ByteOrderMarkIsRejected() throws IOException {
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xFE, 'a', 0}), 16)) {
+            reader.skipByteOrderMark();
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("UTF-16"));
+        }
+    }
+
+    @Test
+    public void byteOrderMarkIsNotPartOfTheFirstColumn() throws Exception {
+        String stops = "stop_id,stop_name\nS1,One\nS1,One again\n";
+        File withBom = tmp.newFolder("bom");
+        GtfsTestFiles.writeFeed(withBom, "a", "stops.txt", "\uFEFF" + stops);
+        File withoutBom = tmp.newFolder("plain");
+        GtfsTestFiles.writeFeed(withoutBom, "a", "stops.txt", stops);
+
+        File out = tmp.newFolder("out");
+        assertTrue(new FullGtfsMerger().mergeFeedsFromFolders(withBom.getPath(), new File(out, "bom").getPath(), "long"));
+        assertTrue(new FullGtfsMerger().mergeFeedsFromFolders(withoutBom.getPath(), new File(out, "plain").getPath(), "long"));
+        assertEquals(GtfsTestFiles.readFolder(new File(out, "plain")), GtfsTestFiles.readFolder(new File(out, "bom")));
+        assertTrue(GtfsTestFiles.read(new File(out, "bom/stops.txt")).contains("\"S1\",\"One again\""));
+    }
+
+    private static List<String[]> parseMapped(File file, long windowSize, long start, long end) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        MappedFileInputStream in = new MappedFileInputStream(file, windowSize);
+        in.seek(start);
+        in.limit(end);
+        try (GtfsCsvReader reader = new GtfsCsvReader(in)) {
+            String[] row;
+            while ((row = reader.readRecord()) != null) rows.add(row);
+            assertEquals(end - start, reader.position());
+        }
+        return rows;
+    }
+
+    @Test
+    public void mappedWindowsParseLikeTheHeapBuffer() throws IOException {
+        // Escaped quotes, line breaks in quotes, bytes after a closing quote, blank lines and \r\n
+        Random random = new Random(41);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) rows.add(DedupeStoreChecks.randomRow(random, "K" + i));
+        String csv = GtfsTestFiles.writeWithOpenCsv(rows) + "\n\"ab\"cd,\"x\"\"\"\r\n\r\n\"a very long quoted \"\"value\"\" that spans windows\",\"\"\n\"open";
+        byte[] bytes = utf8(csv);
+        File file = tmp.newFile();
+        GtfsTestFiles.write(file, bytes);
+
+        List<String[]> expected = GtfsTestFiles.parseWithTokenizer(bytes);
+        for (long windowSize : new long[]{1, 7, 64, 4096, MappedFileInputStream.DEFAULT_WINDOW_SIZE}) {
+            assertRowsEqual(expected, parseMapped(file, windowSize, 0, bytes.length));
+        }
+
+        // A range of the file, as ChunkedCsvParser reads it: records two and three
+        long[] recordEnds = new long[3];
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(bytes))) {
+            for (int r = 0; r < recordEnds.length; r++) {
+                assertTrue(reader.next());
+                recordEnds[r] = reader.position();
+            }
+        }
+        assertRowsEqual(expected.subList(1, 3), parseMapped(file, 16, recordEnds[0], recordEnds[2]));
+    }
+}
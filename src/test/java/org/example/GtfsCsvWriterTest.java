@@ -0,0 +1,112 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GtfsCsvWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String write(List<String[]> rows, boolean minimalQuoting) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GtfsCsvWriter writer = new GtfsCsvWriter(bytes, minimalQuoting)) {
+            for (String[] row : rows) writer.writeRow(row);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void assertRowsEqual(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertArrayEquals("row " + i, expected.get(i), actual.get(i));
+    }
+
+    // Random rows with commas, quotes, line breaks, multi-byte characters and null cells
+    private static List<String[]> randomRows(long seed) {
+        Random random = new Random(seed);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) rows.add(DedupeStoreChecks.randomRow(random, "K" + i));
+        rows.add(new String[]{"carriage\rreturn", "crlf\r\n", "", "only\"quote"});
+        return rows;
+    }
+
+    @Test
+    public void defaultQuotingMatchesOpenCsv() throws IOException {
+        List<String[]> rows = randomRows(31);
+        assertEquals(GtfsTestFiles.writeWithOpenCsv(rows), write(rows, false));
+    }
+
+    @Test
+    public void minimalQuotingQuotesOnlyWhatNeedsIt() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{"S1", "Main Street", "", null, "52.5"});
+        rows.add(new String[]{"a,b", "say \"hi\"", "line\nbreak", "cr\r", "İzmir 🚌"});
+        assertEquals("S1,Main Street,,,52.5\n\"a,b\",\"say \"\"hi\"\"\",\"line\nbreak\",\"cr\r\",İzmir 🚌\n", write(rows, true));
+    }
+
+    @Test
+    public void loneEmptyFieldSurvivesMinimalQuoting() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{"feed_lang"});
+        rows.add(new String[]{""});
+        rows.add(new String[]{null});
+        rows.add(new String[]{"en"});
+        String minimal = write(rows, true);
+        assertEquals("feed_lang\n\"\"\n\"\"\nen\n", minimal);
+
+        List<String[]> expected = new ArrayList<>();
+        for (String value : new String[]{"feed_lang", "", "", "en"}) expected.add(new String[]{value});
+        assertRowsEqual(expected, GtfsTestFiles.parseWithTokenizer(minimal.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void minimalQuotingReadsBackLikeTheDefault() throws IOException {
+        List<String[]> rows = randomRows(32);
+        String minimal = write(rows, true);
+        String quoted = write(rows, false);
+        assertTrue(minimal.length() < quoted.length());
+
+        // Both forms parse to the same rows with OpenCSV, which drops a carriage return inside quotes
+        assertRowsEqual(GtfsTestFiles.parseWithOpenCsv(quoted), GtfsTestFiles.parseWithOpenCsv(minimal));
+
+        // The tokenizer keeps it and reads back the original rows, with null cells as empty fields
+        List<String[]> expected = new ArrayList<>();
+        for (String[] row : rows) {
+            String[] cells = row.clone();
+            for (int c = 0; c < cells.length; c++) if (cells[c] == null) cells[c] = "";
+            expected.add(cells);
+        }
+        assertRowsEqual(expected, GtfsTestFiles.parseWithTokenizer(minimal.getBytes(StandardCharsets.UTF_8)));
+        assertRowsEqual(expected, GtfsTestFiles.parseWithTokenizer(quoted.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void minimallyQuotedOutputMergesLikeTheDefault() throws Exception {
+        File root = tmp.newFolder("feeds");
+        GtfsTestFiles.writeFeed(root, "a",
+                "stops.txt", "stop_id,stop_name,stop_desc\nS1,\"Main, North\",\nS2,\"Say \"\"hi\"\"\",\"two\nlines\"\n");
+
+        File out = tmp.newFolder("out");
+        FullGtfsMerger minimal = new FullGtfsMerger();
+        minimal.setMinimalQuoting(true);
+        assertTrue(minimal.mergeFeedsFromFolders(root.getPath(), new File(out, "minimal").getPath(), "long"));
+        assertTrue(new FullGtfsMerger().mergeFeedsFromFolders(root.getPath(), new File(out, "quoted").getPath(), "long"));
+
+        String minimalStops = GtfsTestFiles.read(new File(out, "minimal/stops.txt"));
+        assertTrue(minimalStops.startsWith("stop_id,stop_name,stop_desc\nS1,\"Main, North\",\n"));
+        assertRowsEqual(GtfsTestFiles.parseWithOpenCsv(new File(out, "quoted/stops.txt")), GtfsTestFiles.parseWithOpenCsv(minimalStops));
+    }
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Helpers shared by the tests: writing feed folders and reading CSV the way the merger did with OpenCSV.
+ */
+final class GtfsTestFiles {
+
+    private GtfsTestFiles() {
+    }
+
+    /**
+     * Creates a feed folder.
+     *
+     * @param root  The folder that holds the feeds.
+     * @param name  Name of the feed folder.
+     * @param files Pairs of file name and UTF-8 content.
+     * @return The feed folder.
+     */
+    static File writeFeed(File root, String name, String... files) throws IOException {
+        File dir = new File(root, name);
+        dir.mkdirs();
+        for (int i = 0; i < files.length; i += 2) write(new File(dir, files[i]), files[i + 1].getBytes(StandardCharsets.UTF_8));
+        return dir;
+    }
+
+    static void write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The lines of a text, sorted, for comparing outputs whose row order depends on the feed order.
+     */
+    static List<String> sortedLines(String text) {
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    /**
+     * @return The content of every file of a folder by name.
+     */
+    static Map<String, String> readFolder(File dir) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        File[] list = dir.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                if (file.isFile()) files.put(file.getName(), read(file));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Parses CSV with OpenCSV, as the merger read its inputs before it had its own tokenizer.
+     */
+    static List<String[]> parseWithOpenCsv(String csv) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new StringReader(csv))) {
+            String[] row;
+            while ((row = reader.readNext()) != null) rows.add(row);
+        } catch (CsvValidationException e) {
+            throw new IOException(e);
+        }
+        return rows;
+    }
+
+    static List<String[]> parseWithOpenCsv(File file) throws IOException {
+        return parseWithOpenCsv(read(file));
+    }
+
+    /**
+     * Parses CSV with the merger's tokenizer.
+     */
+    static List<String[]> parseWithTokenizer(byte[] csv) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (GtfsCsvReader reader = new GtfsCsvReader(new ByteArrayInputStream(csv), 16)) {
+            String[] row;
+            while ((row = reader.readRecord()) != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes rows with OpenCSV's default {@code CSVWriter}, as the merger wrote its outputs before.
+     */
+    static String writeWithOpenCsv(List<String[]> rows) throws IOException {
+        StringWriter out = new StringWriter();
+        try (CSVWriter writer = new CSVWriter(out)) {
+            for (String[] row : rows) writer.writeNext(row);
+        }
+        return out.toString();
+    }
+}
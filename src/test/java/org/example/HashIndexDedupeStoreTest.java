@@ -0,0 +1,43 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class HashIndexDedupeStoreTest {
+
+    @Test
+    public void storeBehavesLikeLinkedHashMap() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new HashIndexDedupeStore<>(HashIndexDedupeStore::fingerprint), 5_000, 500, 21);
+    }
+
+    @Test
+    public void indexGrowsPastItsInitialCapacity() throws IOException {
+        // 20 000 distinct keys rehash the table several times and grow the slot arrays past 1024
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new HashIndexDedupeStore<>(HashIndexDedupeStore::fingerprint), 60_000, 20_000, 22);
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new HashIndexDedupeStore<>(HashIndexDedupeStore::fingerprint), 30_000, Integer.MAX_VALUE, 23);
+    }
+
+    @Test
+    public void equalFingerprintsNeverMergeDifferentKeys() throws IOException {
+        // Every key collides: the probe sequence is one long run that must compare the keys
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new HashIndexDedupeStore<String>(key -> 42L), 3_000, 400, 24);
+    }
+
+    @Test
+    public void collidingFingerprintsSurviveRehashing() throws IOException {
+        // Eight fingerprints for thousands of keys: long collision runs that are moved on every rehash
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(
+                new HashIndexDedupeStore<String>(key -> HashIndexDedupeStore.fingerprint(key) & 7), 10_000, 2_500, 25);
+    }
+
+    @Test
+    public void fingerprintIsFnv1a() {
+        assertEquals(0xcbf29ce484222325L, HashIndexDedupeStore.fingerprint(""));
+        assertEquals(0xaf63dc4c8601ec8cL, HashIndexDedupeStore.fingerprint("a"));
+        assertNotEquals(HashIndexDedupeStore.fingerprint("S12"), HashIndexDedupeStore.fingerprint("S21"));
+    }
+}
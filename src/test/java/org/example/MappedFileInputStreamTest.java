@@ -0,0 +1,73 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedFileInputStreamTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File randomFile(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = tmp.newFile();
+        GtfsTestFiles.write(file, content);
+        return file;
+    }
+
+    @Test
+    public void readsTheFileAcrossWindows() throws IOException {
+        File file = randomFile(10_000);
+        byte[] expected = Files.readAllBytes(file.toPath());
+        for (long windowSize : new long[]{1, 7, 4096, 10_000, MappedFileInputStream.DEFAULT_WINDOW_SIZE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream in = new MappedFileInputStream(file, windowSize)) {
+                byte[] buffer = new byte[333];
+                int n;
+                while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+                    bytes.write(buffer, 0, n);
+                    int c = in.read(); // single bytes in between
+                    if (c >= 0) bytes.write(c);
+                }
+                assertEquals(-1, in.read());
+            }
+            assertArrayEquals("window size " + windowSize, expected, bytes.toByteArray());
+        }
+    }
+
+    @Test
+    public void skipMovesWithinAndAcrossWindows() throws IOException {
+        File file = randomFile(5_000);
+        byte[] expected = Files.readAllBytes(file.toPath());
+        try (InputStream in = new MappedFileInputStream(file, 1024)) {
+            assertEquals(10, in.skip(10));
+            assertEquals(expected[10] & 0xFF, in.read()); // maps the first window
+            assertEquals(100, in.skip(100)); // inside the window
+            assertEquals(expected[111] & 0xFF, in.read());
+            assertEquals(2000, in.skip(2000)); // past the window
+            assertEquals(expected[2112] & 0xFF, in.read());
+            assertEquals(expected.length - 2113, in.available());
+
+            byte[] rest = new byte[expected.length];
+            int read = 0;
+            int n;
+            while ((n = in.read(rest, read, rest.length - read)) > 0) read += n;
+            assertArrayEquals(Arrays.copyOfRange(expected, 2113, expected.length), Arrays.copyOf(rest, read));
+
+            assertEquals(0, in.skip(10)); // at the end
+        }
+    }
+}
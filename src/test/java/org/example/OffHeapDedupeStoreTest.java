@@ -0,0 +1,51 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class OffHeapDedupeStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void storeBehavesLikeLinkedHashMap() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new OffHeapDedupeStore<>(HashIndexDedupeStore::fingerprint), 20_000, 3_000, 11);
+    }
+
+    @Test
+    public void collidingKeysStayApart() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new OffHeapDedupeStore<String>(key -> key.length()), 5_000, 1_500, 13);
+    }
+
+    @Test
+    public void arenaRoundTripsRowsAcrossChunks() {
+        OffHeapRowArena arena = new OffHeapRowArena(1024);
+        try {
+            Random random = new Random(12);
+            List<String[]> rows = new ArrayList<>();
+            List<Long> pointers = new ArrayList<>();
+            for (int i = 0; i < 2_000; i++) {
+                String[] row = DedupeStoreChecks.randomRow(random, "K" + i);
+                rows.add(row);
+                pointers.add(arena.append(row));
+            }
+            for (int i = 0; i < rows.size(); i++) assertArrayEquals("row " + i, rows.get(i), arena.read(pointers.get(i)));
+        } finally {
+            arena.clear();
+        }
+    }
+
+    @Test
+    public void duplicateReferenceColumnMergesOffHeap() throws Exception {
+        ColumnProjectionTest.assertMergesDuplicateColumns(tmp, merger -> merger.setOffHeapRows(true));
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingDedupeStoreTest {
+
+    private static SpillingDedupeStore<String> store() {
+        return new SpillingDedupeStore<>(HeapPressureMonitor.withThreshold(0.99), 64 * 1024,
+                key -> key.getBytes(StandardCharsets.UTF_8), HashIndexDedupeStore::fingerprint);
+    }
+
+    @Test
+    public void storeBehavesLikeLinkedHashMap() throws IOException {
+        // Whether or not the heap fills up during the test, the rows come back in the same order
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(store(), 20_000, 3_000, 41);
+    }
+
+    @Test
+    public void collidingKeysStayApart() throws IOException {
+        DedupeStoreChecks.assertBehavesLikeLinkedHashMap(new SpillingDedupeStore<String>(HeapPressureMonitor.withThreshold(0.99),
+                64 * 1024, key -> key.getBytes(StandardCharsets.UTF_8), key -> key.length()), 5_000, 1_500, 42);
+    }
+
+    @Test
+    public void spillingKeepsFirstSeenOrderAndLatestRows() throws IOException {
+        Random random = new Random(43);
+        Map<String, String[]> expected = new LinkedHashMap<>();
+        try (SpillingDedupeStore<String> store = store()) {
+            for (int i = 0; i < 10_000; i++) {
+                // Spill halfway, as a heap pressure notification would; later rows overwrite spilled keys
+                if (i == 5_000 && !store.isSpilled()) store.spill();
+                String key = "K" + random.nextInt(2_000);
+                String[] row = DedupeStoreChecks.randomRow(random, key);
+                expected.put(key, row);
+                store.put(key, row);
+            }
+            assertTrue(store.isSpilled());
+
+            List<String[]> actual = new ArrayList<>();
+            store.forEachRow(actual::add);
+            assertEquals(expected.size(), actual.size());
+            int i = 0;
+            for (String[] row : expected.values()) assertArrayEquals("row " + i, row, actual.get(i++));
+        }
+    }
+}
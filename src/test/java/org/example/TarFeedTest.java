@@ -0,0 +1,225 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TarFeedTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String STOPS = "stop_id,stop_name\nS1,One\nS2,\"Two, \"\"B\"\"\"\n";
+    private static final String STOP_TIMES = "trip_id,stop_sequence,stop_id\nT1,1,S1\nT1,2,S2\n";
+    private static final String TRIPS = "route_id,service_id,trip_id\nR1,C1,T1\n";
+    private static final String AGENCY = "agency_id,agency_name\nA1,Agency\n";
+
+    /**
+     * Builds a tar archive by hand, with the header forms that GTFS bundles use.
+     */
+    static final class TarBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // A ustar entry; names longer than 100 bytes go into the prefix field
+        TarBuilder entry(String name, byte type, byte[] data) throws IOException {
+            byte[] header = new byte[512];
+            String prefix = "";
+            if (name.length() > 100) {
+                int slash = name.lastIndexOf('/');
+                prefix = name.substring(0, slash);
+                name = name.substring(slash + 1);
+            }
+            put(header, 0, name);
+            put(header, 100, "0000644");
+            put(header, 108, "0000000");
+            put(header, 116, "0000000");
+            put(header, 124, String.format("%011o", data.length));
+            put(header, 136, String.format("%011o", 1_700_000_000L));
+            header[156] = type;
+            put(header, 257, "ustar");
+            put(header, 263, "00");
+            put(header, 345, prefix);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            int sum = 0;
+            for (byte b : header) sum += b & 0xFF;
+            put(header, 148, String.format("%06o", sum));
+            out.write(header);
+            out.write(data);
+            out.write(new byte[(512 - data.length % 512) % 512]);
+            return this;
+        }
+
+        TarBuilder file(String name, String content) throws IOException {
+            return entry(name, (byte) '0', content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // A GNU long name for the next entry
+        TarBuilder longName(String name) throws IOException {
+            return entry("././@LongLink", (byte) 'L', (name + "\0").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // A pax extended header with the given records
+        TarBuilder pax(String records) throws IOException {
+            return entry("PaxHeaders/next", (byte) 'x', records.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] build() {
+            byte[] end = new byte[1024];
+            out.write(end, 0, end.length);
+            return out.toByteArray();
+        }
+
+        private static void put(byte[] header, int offset, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, header, offset, bytes.length);
+        }
+    }
+
+    // A pax record: "<length> <key>=<value>\n", where the length counts the whole record
+    static String paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int length = body.length();
+        while (String.valueOf(length).length() + body.length() != length) length++;
+        return length + body;
+    }
+
+    private static byte[] gtfsBundle() throws IOException {
+        return new TarBuilder()
+                .file("./stops.txt", STOPS)
+                .longName("stop_times.txt")
+                .file("././@LongLink-truncated", STOP_TIMES)
+                .pax(paxRecord("mtime", "1700000000.5") + paxRecord("path", "trips.txt"))
+                .file("PaxHeaders-truncated-name", TRIPS)
+                .entry("sub/", (byte) '5', new byte[0])
+                .file("sub/agency.txt", AGENCY)
+                .file("../calendar.txt", "service_id\nC1\n")
+                .build();
+    }
+
+    private File writeArchive(String name, byte[] tar, boolean gzip) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+            out.write(tar);
+        }
+        return file;
+    }
+
+    private static String read(GtfsFeed feed, String fileName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = feed.openFile(fileName)) {
+            byte[] buffer = new byte[7];
+            int n;
+            while ((n = in.read(buffer)) > 0) bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void assertReadsBundle(GtfsFeed feed) throws IOException {
+        assertEquals(Arrays.asList("stops.txt", "stop_times.txt", "trips.txt"), feed.listFiles());
+        assertEquals(STOPS, read(feed, "stops.txt"));
+        assertEquals(STOP_TIMES, read(feed, "stop_times.txt"));
+        assertEquals(TRIPS, read(feed, "trips.txt"));
+        assertEquals(STOP_TIMES.length(), feed.fileSize("stop_times.txt"));
+        assertEquals(1_700_000_000_000L, feed.lastModified("stops.txt"));
+        assertTrue(feed.isSeekable("stops.txt"));
+
+        // Skipping moves to the right byte of the file
+        try (InputStream in = feed.openFile("stop_times.txt")) {
+            assertEquals(30, in.skip(30));
+            assertEquals('T', in.read());
+        }
+    }
+
+    @Test
+    public void plainArchiveIsReadInPlace() throws IOException {
+        try (TarFeed feed = new TarFeed(writeArchive("feed.tar", gtfsBundle(), false))) {
+            assertReadsBundle(feed);
+            assertNull(feed.localFile("stops.txt"));
+        }
+    }
+
+    @Test
+    public void compressedArchiveIsDecompressedOnceAndCleanedUp() throws IOException {
+        File local;
+        try (TarFeed feed = new TarFeed(writeArchive("feed.tar.gz", gtfsBundle(), true))) {
+            assertReadsBundle(feed);
+            local = feed.localFile("stops.txt");
+            assertNotNull(local);
+            assertEquals(STOPS, GtfsTestFiles.read(local));
+            assertFalse(new File(local.getParentFile(), "calendar.txt").exists());
+        }
+        assertFalse(local.exists());
+        assertFalse(local.getParentFile().exists());
+    }
+
+    @Test
+    public void malformedPaxLengthIsRejected() throws IOException {
+        File archive = writeArchive("bad.tar", new TarBuilder()
+                .pax("x path=trips.txt\n")
+                .file("trips.txt", TRIPS)
+                .build(), false);
+        try {
+            new TarFeed(archive).close();
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertEquals("bad.tar has a malformed tar header", e.getMessage());
+        }
+    }
+
+    @Test
+    public void paxRecordShorterThanItsFieldsIsRejected() throws IOException {
+        for (String records : new String[]{"1 x", "3 path=trips.txt\n", "16 path=trips.txt"}) {
+            File archive = writeArchive("short.tar", new TarBuilder()
+                    .pax(records)
+                    .file("trips.txt", TRIPS)
+                    .build(), false);
+            try {
+                new TarFeed(archive).close();
+                fail("expected an IOException for " + records);
+            } catch (IOException e) {
+                assertEquals("short.tar has a malformed tar header", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void tarFeedsMergeLikeFolders() throws Exception {
+        File folders = tmp.newFolder("folders");
+        GtfsTestFiles.writeFeed(folders, "a", "stops.txt", STOPS, "stop_times.txt", STOP_TIMES, "trips.txt", TRIPS);
+        GtfsTestFiles.writeFeed(folders, "b", "stops.txt", "stop_id,stop_name,zone_id\nS3,B3,Z\nS4,B4,Z\n",
+                "stop_times.txt", "trip_id,stop_sequence,stop_id\nT2,1,S3\nT2,2,S4\n");
+
+        File archives = tmp.newFolder("archives");
+        writeArchive("archives/a.tar", gtfsBundle(), false);
+        writeArchive("archives/b.tgz", new TarBuilder()
+                .file("stops.txt", "stop_id,stop_name,zone_id\nS3,B3,Z\nS4,B4,Z\n")
+                .file("stop_times.txt", "trip_id,stop_sequence,stop_id\nT2,1,S3\nT2,2,S4\n")
+                .build(), true);
+
+        // The feeds share no key, so the result doesn't depend on the order the folders are listed in
+        File out = tmp.newFolder("out");
+        assertTrue(new FullGtfsMerger().mergeFeedsFromFolders(folders.getPath(), new File(out, "folders").getPath(), "long"));
+        assertTrue(new FullGtfsMerger().mergeFeedsFromZips(archives.getPath(), new File(out, "archives").getPath(), "long"));
+        for (String table : new String[]{"stops.txt", "stop_times.txt", "trips.txt"}) {
+            assertEquals(GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "folders/" + table))),
+                    GtfsTestFiles.sortedLines(GtfsTestFiles.read(new File(out, "archives/" + table))));
+        }
+    }
+}
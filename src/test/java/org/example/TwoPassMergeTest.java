@@ -0,0 +1,42 @@
+package org.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TwoPassMergeTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void twoPassMergeMatchesTheInMemoryMerge() throws Exception {
+        File root = tmp.newFolder("feeds");
+        // Single-column, composite and missing IDs, duplicates within and across feeds, blank lines
+        GtfsTestFiles.writeFeed(root, "a",
+                "stops.txt", "stop_id,stop_name\nS1,a1\nS2,\"a, 2\"\n\nS1,a1 again\n,no id\n",
+                "stop_times.txt", "trip_id,stop_sequence,stop_id\nT1,1,S1\nT1,2,S2\nT1,1,S2\n",
+                "feed_info.txt", "feed_publisher_name\nA\nA\n");
+        GtfsTestFiles.writeFeed(root, "b",
+                "stops.txt", "stop_id,stop_name,zone_id\nS2,\"b\n2\",Z\nS3,b3,Z\n",
+                "stop_times.txt", "trip_id,stop_sequence,stop_id\r\nT1,2,S3\r\nT2,1,S3\r\n",
+                "feed_info.txt", "feed_publisher_name\nB\n");
+
+        // Enough keys to grow the index past its initial capacity
+        StringBuilder stops = new StringBuilder("stop_id,stop_name\n");
+        for (int i = 0; i < 3_000; i++) stops.append('X').append(i % 2_500).append(",c").append(i).append('\n');
+        GtfsTestFiles.writeFeed(root, "c", "stops.txt", stops.toString());
+
+        File out = tmp.newFolder("out");
+        FullGtfsMerger twoPass = new FullGtfsMerger();
+        twoPass.setTwoPass(true);
+        assertTrue(twoPass.mergeFeedsFromFolders(root.getPath(), new File(out, "twoPass").getPath(), "long"));
+        assertTrue(new FullGtfsMerger().mergeFeedsFromFolders(root.getPath(), new File(out, "memory").getPath(), "long"));
+        assertEquals(GtfsTestFiles.readFolder(new File(out, "memory")), GtfsTestFiles.readFolder(new File(out, "twoPass")));
+    }
+}